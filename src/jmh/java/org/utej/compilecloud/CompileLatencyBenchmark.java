@@ -0,0 +1,68 @@
+package org.utej.compilecloud;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end gcc latency, bypassing the compile cache: source on stdin, binary into a scratch dir.
+ * Sources are generated with a given number of functions to scale parse and codegen work.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileLatencyBenchmark {
+
+    @Param({"1", "50", "500"})
+    int functions;
+
+    @Param({"-O0", "-O0 -pipe", "-O2"})
+    String flags;
+
+    byte[] source;
+    Path dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder sb = new StringBuilder("#include <stdio.h>\n#include <stdlib.h>\n#include <string.h>\n");
+        for (int i = 0; i < functions; i++) {
+            sb.append("static int f").append(i).append("(int x) { int s = 0; for (int i = 0; i < x; i++) s += i * ")
+              .append(i).append(" % 7; return s; }\n");
+        }
+        sb.append("int main(void) { int s = 0;\n");
+        for (int i = 0; i < functions; i++) sb.append("  s += f").append(i).append("(").append(i).append(");\n");
+        sb.append("  printf(\"%d\\n\", s); return 0; }\n");
+        source = sb.toString().getBytes(StandardCharsets.UTF_8);
+        dir = Files.createTempDirectory("jmh-compile-");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        WorkspaceManager.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int gcc() throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>(List.of("gcc", "-x", "c", "-"));
+        cmd.addAll(List.of(flags.split(" ")));
+        cmd.addAll(List.of("-o", "main.out"));
+        Process p = new ProcessBuilder(cmd).directory(dir.toFile())
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try (OutputStream stdin = p.getOutputStream()) {
+            stdin.write(source);
+        }
+        int exit = p.waitFor();
+        if (exit != 0) throw new IllegalStateException("gcc failed: " + exit);
+        return exit;
+    }
+}
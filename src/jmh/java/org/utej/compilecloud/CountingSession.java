@@ -0,0 +1,41 @@
+package org.utej.compilecloud;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+
+/** A WebSocketSession that swallows messages and counts them, so benchmarks measure only our side. */
+class CountingSession implements WebSocketSession {
+
+    long messages;
+    long payloadBytes;
+    String acceptedProtocol;
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        messages++;
+        payloadBytes += message.getPayloadLength();
+    }
+
+    @Override public String getId() { return "bench"; }
+    @Override public URI getUri() { return null; }
+    @Override public HttpHeaders getHandshakeHeaders() { return new HttpHeaders(); }
+    @Override public Map<String, Object> getAttributes() { return Map.of(); }
+    @Override public Principal getPrincipal() { return null; }
+    @Override public InetSocketAddress getLocalAddress() { return null; }
+    @Override public InetSocketAddress getRemoteAddress() { return null; }
+    @Override public String getAcceptedProtocol() { return acceptedProtocol; }
+    @Override public void setTextMessageSizeLimit(int messageSizeLimit) { }
+    @Override public int getTextMessageSizeLimit() { return Integer.MAX_VALUE; }
+    @Override public void setBinaryMessageSizeLimit(int messageSizeLimit) { }
+    @Override public int getBinaryMessageSizeLimit() { return Integer.MAX_VALUE; }
+    @Override public List<WebSocketExtension> getExtensions() { return List.of(); }
+    @Override public boolean isOpen() { return true; }
+    @Override public void close() { }
+    @Override public void close(CloseStatus status) { }
+}
@@ -0,0 +1,62 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launch-to-first-output-byte of a trivial binary under the default limits, cold (new process or
+ * PTY per run) against warm (a launcher pre-spawned outside the measured section).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LaunchLatencyBenchmark {
+
+    @Param({"PIPE", "PTY"})
+    LauncherPool.Kind kind;
+
+    @Param({"false", "true"})
+    boolean warm;
+
+    LauncherPool pool;
+    ResourceLimits.Profile profile;
+    Path dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        ResourceLimits limits = new ResourceLimits(new MockEnvironment(), true, "");
+        profile = limits.profile("default");
+        // No idle target: the only warm launchers are the ones spawned per invocation below.
+        pool = new LauncherPool(limits, new PipelineMetrics(new SimpleMeterRegistry()), warm, 0, 0, 10_000, 300);
+        dir = Files.createTempDirectory("jmh-launch-");
+    }
+
+    @Setup(Level.Invocation)
+    public void spawn() throws IOException {
+        if (warm) pool.prewarm(kind, profile, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        WorkspaceManager.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int firstByte() throws IOException, InterruptedException {
+        try (LauncherPool.Launch launch = pool.start(kind, profile, dir, "/bin/echo")) {
+            int b = launch.process().getInputStream().read();
+            launch.process().waitFor();
+            return b;
+        }
+    }
+}
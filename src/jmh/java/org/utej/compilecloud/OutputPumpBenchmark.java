@@ -0,0 +1,70 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Program output from a fake process stream to a session: the original one-message-per-char
+ * gobbler against StreamGobbler feeding a batching SessionOutputWriter, the latter on the text
+ * protocol and on binary records ("compilecloud.bin.v1").
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputPumpBenchmark {
+
+    @Param({"16384", "262144"})
+    int outputBytes;
+
+    @Param({"compilecloud.text", "compilecloud.bin.v1"})
+    String protocol;
+
+    byte[] output;
+    PipelineMetrics.OutputMeter meter;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(outputBytes + 32);
+        for (int i = 0; sb.length() < outputBytes; i++) sb.append("line ").append(i).append(" héllo\n");
+        output = sb.substring(0, outputBytes).getBytes(StandardCharsets.UTF_8);
+        meter = new PipelineMetrics(new SimpleMeterRegistry()).output(PipelineMetrics.WS);
+    }
+
+    @Benchmark
+    public long charByChar() throws IOException {
+        CountingSession session = new CountingSession();
+        try (InputStreamReader isr = new InputStreamReader(new ByteArrayInputStream(output), StandardCharsets.UTF_8)) {
+            int c;
+            while ((c = isr.read()) != -1) {
+                synchronized (session) {
+                    session.sendMessage(new TextMessage("OUTPUT:" + (char) c));
+                }
+            }
+        }
+        return session.messages;
+    }
+
+    @Benchmark
+    public long buffered() throws InterruptedException {
+        CountingSession session = new CountingSession();
+        session.acceptedProtocol = protocol;
+        SessionOutputWriter writer = new SessionOutputWriter(session, 8192, 10, meter);
+        Thread drain = Thread.ofVirtual().start(writer);
+        new StreamGobbler(new ByteArrayInputStream(output), writer, "OUTPUT:",
+                new AtomicLong(Long.MAX_VALUE), () -> { }, () -> { }).run();
+        writer.close();
+        drain.join();
+        return session.messages;
+    }
+}
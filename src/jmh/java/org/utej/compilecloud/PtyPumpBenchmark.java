@@ -0,0 +1,75 @@
+package org.utej.compilecloud;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-chunk costs in the PTY pump: allocating a frame for each read, handing reads to the socket
+ * through CollapsingByteQueue, and the Windows "__RC:n__" sniff, which rescans its whole buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PtyPumpBenchmark {
+
+    private static final int READ_SIZE = 8192;
+
+    /** Number of PTY reads per invocation. */
+    @Param({"16", "128"})
+    int reads;
+
+    byte[] chunk;
+    byte[] lastChunk;
+
+    @Setup
+    public void setUp() {
+        chunk = new byte[READ_SIZE];
+        Arrays.fill(chunk, (byte) 'x');
+        lastChunk = chunk.clone();
+        byte[] rc = "__RC:3__\r\n".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(rc, 0, lastChunk, READ_SIZE - rc.length, rc.length);
+    }
+
+    @Benchmark
+    public long frameCopyPerRead() {
+        long total = 0;
+        for (int i = 0; i < reads; i++) {
+            BinaryMessage m = new BinaryMessage(Arrays.copyOf(chunk, READ_SIZE));
+            total += m.getPayloadLength();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long collapsingQueue() throws InterruptedException {
+        CollapsingByteQueue q = new CollapsingByteQueue(256 * 1024, 64 * 1024);
+        long total = 0;
+        for (int i = 0; i < reads; i++) {
+            q.offer(chunk, 0, READ_SIZE);
+            if ((i & 7) == 7) total += new BinaryMessage(q.take()).getPayloadLength();
+        }
+        q.close();
+        byte[] frame;
+        while ((frame = q.take()) != null) total += new BinaryMessage(frame).getPayloadLength();
+        return total;
+    }
+
+    @Benchmark
+    public Integer rcSniff() {
+        ByteArrayOutputStream sniff = new ByteArrayOutputStream(4096);
+        Integer rc = null;
+        for (int i = 0; i < reads - 1; i++) {
+            rc = TerminalWebSocketHandler.sniffExitCode(sniff, chunk, READ_SIZE);
+        }
+        Integer last = TerminalWebSocketHandler.sniffExitCode(sniff, lastChunk, READ_SIZE);
+        return rc != null ? rc : last;
+    }
+}
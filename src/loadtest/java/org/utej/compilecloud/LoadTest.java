@@ -0,0 +1,297 @@
+package org.utej.compilecloud;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts the application on a random port and drives N concurrent RUN: sessions against /terminal
+ * with a weighted mix of programs, then reports time to first output, compile latency, completion
+ * rate and the JVM's platform thread count and RSS. Clients run in the same JVM, so thread and memory
+ * figures include them (the JDK WebSocket client uses a handful of threads, not one per session).
+ *
+ * <pre>
+ * mvn -Pload test-compile exec:exec -Dload.args="--sessions 2000 --ramp-ms 10000 --mix cpu=3,flood=1"
+ * </pre>
+ * Options: --sessions, --ramp-ms, --mix (compile_error, cpu, flood, interactive, timeout),
+ * --unique-sources (defeat the compile cache, default true), --session-timeout-s, --out;
+ * any --spring.* or --compilecloud.* option is passed to the application.
+ */
+public final class LoadTest {
+
+    enum Program {
+        COMPILE_ERROR("ERROR:", """
+                int main(void) { return undefined_symbol; }
+                """),
+        CPU("END:SUCCESS", """
+                #include <stdio.h>
+                int main(void) {
+                    unsigned long s = 0;
+                    for (unsigned long i = 0; i < 50000000UL; i++) s += i % 7;
+                    printf("%lu\\n", s);
+                    return 0;
+                }
+                """),
+        FLOOD("END:", """
+                #include <stdio.h>
+                int main(void) {
+                    for (int i = 0; i < 200000; i++) printf("line %d of the output flood\\n", i);
+                    return 0;
+                }
+                """),
+        INTERACTIVE("END:SUCCESS", """
+                #include <stdio.h>
+                int main(void) {
+                    char name[64];
+                    printf("name? ");
+                    fflush(stdout);
+                    if (scanf("%63s", name) == 1) printf("hello %s\\n", name);
+                    return 0;
+                }
+                """),
+        TIMEOUT("END:TIMEOUT", """
+                int main(void) { volatile int x = 0; for (;;) x++; }
+                """);
+
+        final String expected;
+        final String source;
+
+        Program(String expected, String source) {
+            this.expected = expected;
+            this.source = source;
+        }
+    }
+
+    /** What one client saw. Times are nanos since it sent RUN:, or -1. */
+    static final class Outcome {
+        final Program program;
+        volatile long compileNanos = -1;
+        volatile long firstOutputNanos = -1;
+        volatile String end;
+
+        Outcome(Program program) { this.program = program; }
+
+        boolean completed() { return end != null && end.startsWith(program.expected); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        List<String> appArgs = new ArrayList<>(List.of("--server.port=0"));
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--spring.") || args[i].startsWith("--compilecloud.")) {
+                appArgs.add(args[i]);
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                opts.put(args[i].substring(2), args[++i]);
+            }
+        }
+        int sessions = Integer.parseInt(opts.getOrDefault("sessions", "500"));
+        long rampMillis = Long.parseLong(opts.getOrDefault("ramp-ms", "5000"));
+        boolean unique = Boolean.parseBoolean(opts.getOrDefault("unique-sources", "true"));
+        long sessionTimeout = Long.parseLong(opts.getOrDefault("session-timeout-s", "180"));
+        Path out = Paths.get(opts.getOrDefault("out", "target/loadtest-result.json"));
+        List<Program> mix = parseMix(opts.getOrDefault("mix", "compile_error=1,cpu=3,flood=1,interactive=3,timeout=1"));
+
+        ConfigurableApplicationContext app = new SpringApplicationBuilder(CompileCloudApplication.class)
+                .run(appArgs.toArray(String[]::new));
+        ResourceSampler sampler = new ResourceSampler();
+        try {
+            int port = Integer.parseInt(app.getEnvironment().getProperty("local.server.port"));
+            URI uri = URI.create("ws://localhost:" + port + "/terminal");
+            System.out.printf("[load] %d sessions against %s, ramp %d ms, mix %s%n", sessions, uri, rampMillis, mix);
+
+            HttpClient http = HttpClient.newHttpClient();
+            List<Outcome> outcomes = new ArrayList<>(sessions);
+            List<CompletableFuture<Void>> done = new ArrayList<>(sessions);
+            long started = System.nanoTime();
+            sampler.start();
+            for (int i = 0; i < sessions; i++) {
+                long due = started + TimeUnit.MILLISECONDS.toNanos(rampMillis) * i / Math.max(1, sessions);
+                long sleep = due - System.nanoTime();
+                if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+
+                Program p = mix.get(i % mix.size());
+                Outcome o = new Outcome(p);
+                outcomes.add(o);
+                String source = unique ? p.source + "// session " + i + "\n" : p.source;
+                done.add(runSession(http, uri, source, o).orTimeout(sessionTimeout, TimeUnit.SECONDS)
+                        .exceptionally(e -> null));
+            }
+            CompletableFuture.allOf(done.toArray(CompletableFuture[]::new)).join();
+            long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            sampler.stop();
+
+            String report = report(outcomes, wallMillis, sampler);
+            System.out.println(report);
+            Files.createDirectories(out.toAbsolutePath().getParent());
+            Files.writeString(out, report);
+            System.out.println("[load] results written to " + out.toAbsolutePath());
+        } finally {
+            app.close();
+        }
+    }
+
+    private static CompletableFuture<Void> runSession(HttpClient http, URI uri, String source, Outcome o) {
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        AtomicLong sentAt = new AtomicLong();
+        WebSocket.Listener listener = new WebSocket.Listener() {
+            private final StringBuilder partial = new StringBuilder();
+            private boolean inputSent;
+
+            @Override
+            public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+                partial.append(data);
+                if (last) {
+                    String msg = partial.toString();
+                    partial.setLength(0);
+                    onMessage(ws, msg);
+                }
+                ws.request(1);
+                return null;
+            }
+
+            private void onMessage(WebSocket ws, String msg) {
+                long elapsed = System.nanoTime() - sentAt.get();
+                if (msg.startsWith("BUILD_LOG: Compilation successful") && o.compileNanos < 0) {
+                    o.compileNanos = elapsed;
+                } else if (msg.startsWith("OUTPUT:") && o.firstOutputNanos < 0) {
+                    o.firstOutputNanos = elapsed;
+                    if (o.program == Program.INTERACTIVE && !inputSent) {
+                        inputSent = true;
+                        ws.sendText("INPUT:load", true);
+                    }
+                } else if (msg.startsWith("END:") || msg.startsWith("ERROR:")) {
+                    o.end = msg;
+                    ws.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+                    finished.complete(null);
+                }
+            }
+
+            @Override
+            public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+                finished.complete(null);
+                return null;
+            }
+
+            @Override
+            public void onError(WebSocket ws, Throwable error) {
+                if (o.end == null) o.end = "CLIENT_ERROR: " + error;
+                finished.complete(null);
+            }
+        };
+        http.newWebSocketBuilder().buildAsync(uri, listener).whenComplete((ws, e) -> {
+            if (e != null) {
+                o.end = "CONNECT_ERROR: " + e;
+                finished.complete(null);
+                return;
+            }
+            sentAt.set(System.nanoTime());
+            ws.sendText("RUN:" + source, true);
+        });
+        return finished;
+    }
+
+    private static List<Program> parseMix(String spec) {
+        List<Program> mix = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            Program p = Program.valueOf(kv[0].trim().toUpperCase());
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) mix.add(p);
+        }
+        return mix;
+    }
+
+    private static String report(List<Outcome> outcomes, long wallMillis, ResourceSampler sampler) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"sessions\": ").append(outcomes.size()).append(",\n");
+        json.append("  \"wallMillis\": ").append(wallMillis).append(",\n");
+        json.append("  \"peakThreads\": ").append(sampler.peakThreads.get()).append(",\n");
+        json.append("  \"peakRssBytes\": ").append(sampler.peakRss.get()).append(",\n");
+        json.append("  \"overall\": ").append(summary(outcomes)).append(",\n");
+        json.append("  \"byProgram\": {");
+        String sep = "\n";
+        for (Program p : Program.values()) {
+            List<Outcome> mine = outcomes.stream().filter(o -> o.program == p).toList();
+            if (mine.isEmpty()) continue;
+            json.append(sep).append("    \"").append(p.name().toLowerCase()).append("\": ").append(summary(mine));
+            sep = ",\n";
+        }
+        json.append("\n  },\n  \"failures\": {");
+        Map<String, Long> failures = new TreeMap<>();
+        for (Outcome o : outcomes) {
+            if (o.completed()) continue;
+            String end = o.end == null ? "NO_RESULT" : o.end.lines().findFirst().orElse("").strip();
+            if (end.length() > 48) end = end.substring(0, 48);
+            failures.merge(o.program.name().toLowerCase() + " -> " + end, 1L, Long::sum);
+        }
+        sep = "\n";
+        for (Map.Entry<String, Long> f : failures.entrySet()) {
+            json.append(sep).append("    \"").append(f.getKey().replace("\"", "'")).append("\": ").append(f.getValue());
+            sep = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    private static String summary(List<Outcome> outcomes) {
+        long completed = outcomes.stream().filter(Outcome::completed).count();
+        long[] ttfo = outcomes.stream().mapToLong(o -> o.firstOutputNanos).filter(n -> n >= 0).sorted().toArray();
+        long[] compile = outcomes.stream().mapToLong(o -> o.compileNanos).filter(n -> n >= 0).sorted().toArray();
+        return String.format(Locale.ROOT,
+                "{\"count\": %d, \"completionRate\": %.4f, \"ttfoP50Ms\": %.1f, \"ttfoP99Ms\": %.1f, "
+                        + "\"compileP50Ms\": %.1f, \"compileP99Ms\": %.1f}",
+                outcomes.size(), outcomes.isEmpty() ? 0.0 : (double) completed / outcomes.size(),
+                percentileMillis(ttfo, 0.50), percentileMillis(ttfo, 0.99),
+                percentileMillis(compile, 0.50), percentileMillis(compile, 0.99));
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double q) {
+        if (sortedNanos.length == 0) return -1;
+        int i = (int) Math.min(sortedNanos.length - 1, Math.ceil(q * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, i)] / 1e6;
+    }
+
+    /** Samples live threads and resident memory (Linux /proc) every 250 ms, keeping the peaks. */
+    static final class ResourceSampler {
+        final AtomicInteger peakThreads = new AtomicInteger();
+        final AtomicLong peakRss = new AtomicLong(-1);
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("load-sampler").daemon(true).factory());
+
+        void start() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            timer.scheduleAtFixedRate(() -> {
+                peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+                peakRss.accumulateAndGet(rssBytes(), Math::max);
+            }, 0, 250, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            timer.shutdownNow();
+        }
+
+        private static long rssBytes() {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException ignored) { }
+            return -1;
+        }
+    }
+}
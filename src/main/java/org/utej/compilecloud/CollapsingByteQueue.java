@@ -0,0 +1,116 @@
+package org.utej.compilecloud;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands output from a producer that must never block (the PTY pump) to a consumer that may be slow
+ * (the WebSocket). Holds at most {@code capacity} bytes; anything offered beyond that is dropped and
+ * replaced by a single "[... N bytes skipped ...]" marker at the point where it was lost.
+ */
+final class CollapsingByteQueue {
+
+    private static final class Entry {
+        final byte[] data;  // null for a skip marker
+        long skipped;
+
+        Entry(byte[] data) { this.data = data; }
+    }
+
+    private final int capacity;
+    private final int maxFrame;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private int bytes;
+    private long totalSkipped;
+    private boolean closed;
+
+    CollapsingByteQueue(int capacity, int maxFrame) {
+        this.capacity = capacity;
+        this.maxFrame = maxFrame;
+    }
+
+    /** Returns false if the data was dropped because the consumer is too far behind. */
+    boolean offer(byte[] buf, int off, int len) {
+        lock.lock();
+        try {
+            if (closed) return false;
+            Entry tail = entries.peekLast();
+            if (bytes + len > capacity) {
+                if (tail == null || tail.data != null) {
+                    tail = new Entry(null);
+                    entries.addLast(tail);
+                }
+                tail.skipped += len;
+                totalSkipped += len;
+                notEmpty.signal();
+                return false;
+            }
+            byte[] copy = new byte[len];
+            System.arraycopy(buf, off, copy, 0, len);
+            entries.addLast(new Entry(copy));
+            bytes += len;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks for the next frame: queued chunks merged up to {@code maxFrame} bytes, with skip markers
+     * rendered inline. Returns null once the queue is closed and drained.
+     */
+    byte[] take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (entries.isEmpty()) {
+                if (closed) return null;
+                notEmpty.await();
+            }
+            int size = 0;
+            ArrayDeque<byte[]> parts = new ArrayDeque<>();
+            while (!entries.isEmpty()) {
+                Entry e = entries.peekFirst();
+                byte[] part = e.data != null ? e.data : marker(e.skipped);
+                if (!parts.isEmpty() && size + part.length > maxFrame) break;
+                entries.pollFirst();
+                if (e.data != null) bytes -= e.data.length;
+                parts.add(part);
+                size += part.length;
+            }
+            byte[] frame = new byte[size];
+            int pos = 0;
+            for (byte[] p : parts) {
+                System.arraycopy(p, 0, frame, pos, p.length);
+                pos += p.length;
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** No more offers; {@link #take()} drains what is left, then returns null. */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long skippedBytes() {
+        lock.lock();
+        try { return totalSkipped; } finally { lock.unlock(); }
+    }
+
+    private static byte[] marker(long skipped) {
+        return ("\r\n[... " + skipped + " bytes skipped ...]\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
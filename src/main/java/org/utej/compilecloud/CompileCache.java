@@ -0,0 +1,180 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of compiled binaries.
+ * Entries are keyed by a hash of source bytes, compiler flags and compiler version,
+ * and the directory is kept under a byte budget by evicting the least recently used entry.
+ */
+@Component
+public class CompileCache {
+
+    private static final String BIN_SUFFIX = ".bin";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path dir;
+    private final long maxBytes;
+
+    // key -> bytes on disk (binary + log), in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CompileCache(@Value("${compilecloud.cache.dir:compile_cache}") String dir,
+                        @Value("${compilecloud.cache.max-bytes:268435456}") long maxBytes) throws IOException {
+        this.dir = Paths.get(System.getProperty("user.dir")).resolve(dir).toAbsolutePath();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.dir);
+        loadIndex();
+    }
+
+    public static String key(byte[] source, List<String> flags, String compilerVersion) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(compilerVersion.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            for (String flag : flags) {
+                md.update(flag.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            md.update(source);
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Path directory() {
+        return dir;
+    }
+
+    public boolean contains(String key) {
+        synchronized (entries) {
+            return entries.containsKey(key);
+        }
+    }
+
+    /**
+     * Copies the cached binary for {@code key} to {@code target}.
+     * Returns the compiler log recorded with the entry, or null on a miss.
+     */
+    public String copyTo(String key, Path target) throws IOException {
+        synchronized (entries) {
+            if (entries.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        try {
+            String log = Files.readString(dir.resolve(key + LOG_SUFFIX));
+            Files.copy(dir.resolve(key + BIN_SUFFIX), target, StandardCopyOption.REPLACE_EXISTING);
+            target.toFile().setExecutable(true);
+            hits.incrementAndGet();
+            return log;
+        } catch (NoSuchFileException e) {
+            // evicted between the index check and the copy
+            synchronized (entries) { forget(key); }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /** Copies a freshly built binary into the cache together with its compiler log. */
+    public void put(String key, Path binary, String log) throws IOException {
+        Path bin = dir.resolve(key + BIN_SUFFIX);
+        Path logFile = dir.resolve(key + LOG_SUFFIX);
+        Files.writeString(logFile, log);
+        // The build may live on another filesystem (tmpfs), so stage next to the entry and rename.
+        Path staged = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.copy(binary, staged, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(staged, bin, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+        long size = Files.size(bin) + Files.size(logFile);
+
+        synchronized (entries) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            evictOverBudget(key);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get(), m = misses.get();
+        synchronized (entries) {
+            return Map.of(
+                    "entries", entries.size(),
+                    "bytes", totalBytes,
+                    "maxBytes", maxBytes,
+                    "hits", h,
+                    "misses", m,
+                    "evictions", evictions.get(),
+                    "hitRate", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        }
+    }
+
+    // Must hold the entries lock. Never evicts the entry that was just added.
+    private void evictOverBudget(String keep) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) continue;
+            it.remove();
+            totalBytes -= eldest.getValue();
+            deleteFiles(eldest.getKey());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void forget(String key) {
+        Long size = entries.remove(key);
+        if (size != null) totalBytes -= size;
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        try { Files.deleteIfExists(dir.resolve(key + BIN_SUFFIX)); } catch (IOException ignored) {}
+        try { Files.deleteIfExists(dir.resolve(key + LOG_SUFFIX)); } catch (IOException ignored) {}
+    }
+
+    // Rebuild the index from a previous run, oldest first so LRU order roughly survives restarts.
+    private void loadIndex() throws IOException {
+        List<Path> bins;
+        try (Stream<Path> files = Files.list(dir)) {
+            bins = files.filter(p -> p.getFileName().toString().endsWith(BIN_SUFFIX))
+                    .sorted(Comparator.comparing(p -> p.toFile().lastModified()))
+                    .toList();
+        }
+        synchronized (entries) {
+            for (Path bin : bins) {
+                String name = bin.getFileName().toString();
+                String key = name.substring(0, name.length() - BIN_SUFFIX.length());
+                Path log = dir.resolve(key + LOG_SUFFIX);
+                if (!Files.exists(log)) {
+                    Files.deleteIfExists(bin);
+                    continue;
+                }
+                long size = Files.size(bin) + Files.size(log);
+                entries.put(key, size);
+                totalBytes += size;
+            }
+            evictOverBudget(null);
+        }
+    }
+}
@@ -2,8 +2,10 @@ package org.utej.compilecloud;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CompileCloudApplication {
     static {
         System.setProperty("pty4j.preferConpty", "true");
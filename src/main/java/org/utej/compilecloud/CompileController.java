@@ -1,65 +1,214 @@
 package org.utej.compilecloud;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/files")
 @CrossOrigin("*")
 public class CompileController {
 
-    private static final Path BASE_DIR =
-            Paths.get(System.getProperty("user.dir"), "temp_files").toAbsolutePath();
+    private final SourceStore sources;
+    private final CompileService compileService;
+    private final CompileJobService compileJobs;
+    private final WorkspaceManager workspaces;
+    private final LauncherPool launchers;
+    private final WorkerPool workers;
+    private final long maxInputBytes;
 
-    public CompileController() {
-        try { Files.createDirectories(BASE_DIR); } catch (IOException ignored) {}
+    public CompileController(SourceStore sources, CompileService compileService, CompileJobService compileJobs,
+                             WorkspaceManager workspaces, LauncherPool launchers, WorkerPool workers,
+                             @Value("${compilecloud.input.max-upload-bytes:67108864}") long maxInputBytes) {
+        this.sources = sources;
+        this.compileService = compileService;
+        this.compileJobs = compileJobs;
+        this.workspaces = workspaces;
+        this.launchers = launchers;
+        this.workers = workers;
+        this.maxInputBytes = maxInputBytes;
     }
 
+    /** Full save; with baseVersion it only applies if nobody saved in between. */
+    public record SaveRequest(String fileName, String code, Long baseVersion) {}
+
+    /** Edits against baseVersion; hash, if given, is the SHA-256 the client expects the result to have. */
+    public record PatchRequest(String fileName, Long baseVersion, List<SourceStore.Edit> edits, String hash) {}
+
     @PostMapping("/create")
-    public Map<String, String> createFile() throws IOException {
-        String fileName = UUID.randomUUID().toString() + ".c";
-        Files.createFile(BASE_DIR.resolve(fileName));
-        return Map.of("fileName", fileName);
+    public Map<String, Object> createFile() throws IOException {
+        SourceStore.Version created = sources.create(UUID.randomUUID().toString() + ".c");
+        return Map.of("fileName", created.fileName(), "version", created.version(), "hash", created.hash());
     }
 
     @PostMapping("/save")
-    public Map<String, String> save(@RequestBody Map<String, String> body) throws IOException {
-        String fileName = body.get("fileName");
-        String code = body.get("code");
-        if (fileName == null || code == null) return Map.of("status","error","msg","Missing fileName or code");
-        Path filePath = BASE_DIR.resolve(fileName);
-        if (!Files.exists(filePath)) return Map.of("status","error","msg","File not found");
-        Files.writeString(filePath, code);
-        return Map.of("status","ok");
+    public Map<String, Object> save(@RequestBody SaveRequest body) throws IOException {
+        if (body.fileName() == null || body.code() == null) return Map.of("status","error","msg","Missing fileName or code");
+        return saved(sources.save(body.fileName(), body.code(), body.baseVersion()));
+    }
+
+    @PostMapping("/patch")
+    public Map<String, Object> patch(@RequestBody PatchRequest body) throws IOException {
+        if (body.fileName() == null || body.baseVersion() == null || body.edits() == null) {
+            return Map.of("status","error","msg","Missing fileName, baseVersion or edits");
+        }
+        return saved(sources.patch(body.fileName(), body.baseVersion(), body.edits(), body.hash()));
+    }
+
+    @GetMapping("/sources")
+    public Map<String, Object> sourceStats() {
+        return sources.stats();
     }
 
+    // ok carries the stored version and hash; conflict carries the current ones to rebase on.
+    private static Map<String, Object> saved(SourceStore.Saved saved) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        switch (saved.outcome()) {
+            case SAVED, UNCHANGED -> {
+                m.put("status", "ok");
+                m.put("unchanged", saved.outcome() == SourceStore.Outcome.UNCHANGED);
+            }
+            case CONFLICT -> m.put("status", "conflict");
+            case NOT_FOUND, INVALID -> m.put("status", "error");
+        }
+        if (saved.msg() != null) m.put("msg", saved.msg());
+        if (saved.version() != null) {
+            m.put("version", saved.version().version());
+            m.put("hash", saved.version().hash());
+        }
+        return m;
+    }
+
+    /**
+     * Stores the raw request body as a stdin file; a RUN: session streams it into its program
+     * with INPUT_FILE:&lt;inputId&gt;. The body is copied straight to disk, never held in memory.
+     */
+    @PostMapping(path = "/input", consumes = MediaType.ALL_VALUE)
+    public Map<String, Object> uploadInput(InputStream body) throws IOException {
+        String inputId = UUID.randomUUID().toString();
+        Path file = workspaces.input(inputId);
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW)) {
+            byte[] buf = new byte[64 * 1024];
+            for (int n; (n = body.read(buf)) != -1; ) {
+                size += n;
+                if (size > maxInputBytes) break;
+                out.write(buf, 0, n);
+            }
+        }
+        if (size > maxInputBytes) {
+            Files.deleteIfExists(file);
+            return Map.of("status","error","msg","Input larger than " + maxInputBytes + " bytes");
+        }
+        return Map.of("status","ok","inputId", inputId, "bytes", size);
+    }
+
+    /** Synchronous compile, kept for existing clients; the servlet thread is released while gcc runs. */
     @PostMapping("/compile")
-    public Map<String, String> compile(@RequestBody Map<String, String> body)
-            throws IOException, InterruptedException {
+    public CompletableFuture<Map<String, String>> compile(@RequestBody Map<String, String> body) {
+        Submission sub = submitJob(body);
+        if (sub.error() != null) return CompletableFuture.completedFuture(sub.error());
+        return sub.job().result();
+    }
+
+    @PostMapping("/compile/jobs")
+    public Map<String, Object> submitCompileJob(@RequestBody Map<String, String> body) {
+        Submission sub = submitJob(body);
+        if (sub.error() != null) return Map.copyOf(sub.error());
+        return sub.job().snapshot();
+    }
+
+    @GetMapping("/compile/jobs/{jobId}")
+    public Map<String, Object> compileJobStatus(@PathVariable String jobId) {
+        CompileJobService.Job job = compileJobs.get(jobId);
+        if (job == null) return Map.of("status","error","msg","Job not found");
+        return job.snapshot();
+    }
+
+    @GetMapping(path = "/compile/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter compileJobEvents(@PathVariable String jobId) throws IOException {
+        CompileJobService.Job job = compileJobs.get(jobId);
+        if (job == null) {
+            SseEmitter emitter = new SseEmitter();
+            emitter.send(SseEmitter.event().name("error").data(Map.of("status","error","msg","Job not found")));
+            emitter.complete();
+            return emitter;
+        }
+        return compileJobs.subscribe(job);
+    }
+
+    // Either a submitted job or an error map in the endpoints' usual shape.
+    private record Submission(CompileJobService.Job job, Map<String, String> error) {
+        static Submission error(String msg) {
+            return new Submission(null, Map.of("status","error","msg", msg));
+        }
+    }
 
+    // An optional "version" pins the compile to that saved version of the file.
+    private Submission submitJob(Map<String, String> body) {
         String fileName = body.get("fileName");
-        if (fileName == null) return Map.of("status","error","msg","Missing fileName");
+        if (fileName == null) return Submission.error("Missing fileName");
 
-        Path src = BASE_DIR.resolve(fileName);
-        if (!Files.exists(src)) return Map.of("status","error","msg","Source not found");
+        SourceStore.Version src;
+        try {
+            src = sources.current(fileName);
+        } catch (IOException e) {
+            return Submission.error("Source unreadable: " + e.getMessage());
+        }
+        if (src == null) return Submission.error("Source not found");
+        String version = body.get("version");
+        if (version != null && !version.equals(String.valueOf(src.version()))) {
+            return Submission.error("Version " + version + " is not current (" + src.version() + ")");
+        }
 
         boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
         String exeBase = fileName.replace(".c", "");
         String exeFile = isWindows ? exeBase + ".exe" : exeBase;
-        Path exe = BASE_DIR.resolve(exeFile);
+        Path exe = workspaces.artifact(exeFile);
+
+        try {
+            return new Submission(compileJobs.submit(src, exe), null);
+        } catch (RejectedExecutionException e) {
+            return Submission.error("Server busy, try again shortly");
+        }
+    }
 
-        ProcessBuilder pb = new ProcessBuilder("gcc", src.toString(), "-O2", "-o", exe.toString());
-        pb.redirectErrorStream(true);
-        Process proc = pb.start();
-        String compilerOutput = new String(proc.getInputStream().readAllBytes());
-        int exit = proc.waitFor();
+    @GetMapping("/cache")
+    public Map<String, Object> cacheStats() {
+        return compileService.cacheStats();
+    }
 
-        System.out.println("[compile] src=" + src + " exe=" + exe + " exit=" + exit);
+    @GetMapping("/compile/tiers")
+    public Map<String, Object> tierStats() {
+        return compileService.tierStats();
+    }
+
+    @GetMapping("/compile/pch")
+    public Map<String, Object> pchStats() {
+        return compileService.pchStats();
+    }
+
+    @GetMapping("/workspace")
+    public Map<String, Object> workspaceStats() {
+        return workspaces.stats();
+    }
+
+    @GetMapping("/launchers")
+    public Map<String, Object> launcherStats() {
+        return launchers.stats();
+    }
 
-        if (exit != 0) return Map.of("status","compile_error","output", compilerOutput);
-        return Map.of("status","ok","exe", exe.getFileName().toString(), "output", compilerOutput);
+    @GetMapping("/workers")
+    public List<Map<String, Object>> workerStats() {
+        return workers.stats();
     }
 }
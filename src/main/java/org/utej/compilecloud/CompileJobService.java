@@ -0,0 +1,222 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous compile jobs for the REST API.
+ * A job is queued on the scheduler's compile lane and runs on the I/O executor, so no servlet
+ * thread ever waits on gcc. Finished jobs are kept, oldest evicted first, up to {@code maxRetained}.
+ * A job for a source version whose artifact is already built from it finishes without compiling.
+ */
+@Service
+public class CompileJobService {
+
+    public enum State { QUEUED, RUNNING, DONE }
+
+    private static final long COMPILE_TIMEOUT_SECONDS = 30;
+    private static final long SSE_TIMEOUT_MILLIS = 120_000;
+
+    public static final class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final SourceStore.Version src;
+        private final Path exe;
+        private final CompletableFuture<Map<String, String>> result = new CompletableFuture<>();
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock(); // orders state changes and events
+        private State state = State.QUEUED;
+        private int queuePosition;
+
+        private Job(SourceStore.Version src, Path exe) {
+            this.src = src;
+            this.exe = exe;
+        }
+
+        public String id() { return id; }
+
+        /** Completes with the same map the synchronous endpoint returns. */
+        public CompletableFuture<Map<String, String>> result() { return result; }
+
+        public Map<String, Object> snapshot() {
+            lock.lock();
+            try {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("jobId", id);
+                m.put("fileName", src.fileName());
+                m.put("version", src.version());
+                m.put("state", state.name());
+                if (state == State.QUEUED && queuePosition > 0) m.put("queuePosition", queuePosition);
+                if (state == State.DONE) m.put("result", result.join());
+                return m;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final CompileService compileService;
+    private final SourceStore sources;
+    private final JobScheduler scheduler;
+    private final ExecutorService executor;
+    private final int maxRetained;
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+
+    public CompileJobService(CompileService compileService,
+                             SourceStore sources,
+                             JobScheduler scheduler,
+                             @Qualifier("ioExecutor") ExecutorService executor,
+                             @Value("${compilecloud.jobs.max-retained:1000}") int maxRetained) {
+        this.compileService = compileService;
+        this.sources = sources;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Queues a compile of {@code src} into {@code exe}.
+     *
+     * @throws RejectedExecutionException if the store is full of unfinished jobs or the executor refuses the job
+     */
+    public Job submit(SourceStore.Version src, Path exe) {
+        Job job = new Job(src, exe);
+        synchronized (jobs) {
+            if (jobs.size() >= maxRetained) evictFinished();
+            if (jobs.size() >= maxRetained) throw new RejectedExecutionException("Too many pending jobs");
+            jobs.put(job.id, job);
+        }
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(job.id);
+            }
+            throw e;
+        }
+        return job;
+    }
+
+    public Job get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /** Streams "queued", "running" and "done" events; a finished job gets its "done" event at once. */
+    public SseEmitter subscribe(Job job) {
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MILLIS);
+        job.lock.lock();
+        try {
+            if (job.state == State.DONE) {
+                sendQuietly(emitter, "done", job.result.join());
+                emitter.complete();
+                return emitter;
+            }
+            job.emitters.add(emitter);
+            sendQuietly(emitter, job.state.name().toLowerCase(), job.snapshot());
+        } finally {
+            job.lock.unlock();
+        }
+        Runnable remove = () -> {
+            job.lock.lock();
+            try { job.emitters.remove(emitter); } finally { job.lock.unlock(); }
+        };
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        return emitter;
+    }
+
+    private void run(Job job) {
+        Map<String, String> result = null;
+        String exeName = job.exe.getFileName().toString();
+        if (sources.isBuilt(job.src, job.exe)) {
+            finish(job, Map.of("status","ok","exe", exeName, "output", "", "cached", "true", "bytesWritten", "0",
+                    "tier", "unchanged", "compileMillis", "0", "version", String.valueOf(job.src.version())));
+            return;
+        }
+        try {
+            JobScheduler.Permit permit = scheduler.acquire(JobScheduler.Lane.COMPILE, job.src.fileName(),
+                    position -> update(job, State.QUEUED, position));
+            CompileService.Result r;
+            try {
+                update(job, State.RUNNING, 0);
+                sources.built(job.src.fileName(), null);
+                r = compileService.compileTiered(job.src.content(), job.exe, COMPILE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } finally {
+                permit.close();
+            }
+            // A fast-tier binary is replaced by the optimized one on the next compile, so only that counts as built.
+            if (r.success() && CompileService.OPTIMIZED_TIER.equals(r.tier())) sources.built(job.src.fileName(), job.src.hash());
+
+            if (r.timedOut()) result = Map.of("status","compile_error","output", "Compilation timed out.");
+            else if (!r.success()) result = Map.of("status","compile_error","output", r.output());
+            else result = Map.of("status","ok","exe", exeName, "output", r.output(),
+                        "cached", String.valueOf(r.cached()), "bytesWritten", String.valueOf(r.bytesWritten()),
+                        "tier", r.tier(), "compileMillis", String.valueOf(r.millis()),
+                        "version", String.valueOf(job.src.version()));
+        } catch (RejectedExecutionException e) {
+            result = Map.of("status","error","msg","Server busy, try again shortly");
+        } catch (IOException e) {
+            result = Map.of("status","error","msg","Compile failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = Map.of("status","error","msg","Compile interrupted");
+        } catch (RuntimeException e) {
+            result = Map.of("status","error","msg","Compile failed: " + e);
+        } finally {
+            // Subscribers and synchronous callers wait on finish, so it runs even for an Error.
+            finish(job, result != null ? result : Map.of("status","error","msg","Compile failed"));
+        }
+    }
+
+    private void update(Job job, State state, int queuePosition) {
+        job.lock.lock();
+        try {
+            job.state = state;
+            job.queuePosition = queuePosition;
+            Map<String, Object> snapshot = job.snapshot();
+            for (SseEmitter e : job.emitters) sendQuietly(e, state.name().toLowerCase(), snapshot);
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    private void finish(Job job, Map<String, String> result) {
+        job.lock.lock();
+        try {
+            job.state = State.DONE;
+            job.result.complete(result);
+            for (SseEmitter e : job.emitters) {
+                sendQuietly(e, "done", result);
+                e.complete();
+            }
+            job.emitters.clear();
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    // Must hold the jobs lock.
+    private void evictFinished() {
+        Iterator<Job> it = jobs.values().iterator();
+        while (jobs.size() >= maxRetained && it.hasNext()) {
+            if (it.next().result.isDone()) it.remove();
+        }
+    }
+
+    private static void sendQuietly(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException ignored) {
+            // client went away; completion callback removes the emitter
+        }
+    }
+}
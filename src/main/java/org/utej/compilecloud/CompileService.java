@@ -0,0 +1,372 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single compiler entry point for the REST and WebSocket paths.
+ * Identical (source, toolchain, compiler version) triples are served from {@link CompileCache},
+ * and concurrent requests for the same triple share one compiler run.
+ * Builds run in a {@link WorkspaceManager} scratch directory.
+ *
+ * <p>With tiering on, a source that has no optimized binary yet is built with the fast tier
+ * (tcc, or gcc -O0) so it can start at once, and the optimized tier is built in the background
+ * for the next run. Sources that start with a common set of system headers get a precompiled
+ * header from {@link PchManager} force-included.
+ */
+@Service
+public class CompileService {
+
+    public static final String FAST_TIER = "fast";
+    public static final String OPTIMIZED_TIER = "optimized";
+
+    private static final String BACKGROUND_OWNER = "background-optimize";
+    private static final long BACKGROUND_TIMEOUT_SECONDS = 60;
+
+    /** {@code bytesWritten} counts every file this compile wrote, including the copy at the target. */
+    public record Result(boolean success, int exitCode, String output, boolean timedOut, boolean cached,
+                         long bytesWritten, String tier, long millis) {}
+
+    /** A compiler plus flags, parsed from a spec such as {@code "gcc -O0 -pipe"}. */
+    public record Toolchain(String tier, String compiler, List<String> flags) {
+        static Toolchain parse(String tier, String spec) {
+            List<String> words = List.of(spec.trim().split("\\s+"));
+            return new Toolchain(tier, words.get(0), words.subList(1, words.size()));
+        }
+
+        // gcc and clang take "-x c -" on stdin and precompiled headers; others (tcc) get a plain file.
+        boolean gccCompatible() {
+            String name = Paths.get(compiler).getFileName().toString();
+            return name.startsWith("gcc") || name.startsWith("clang") || name.equals("cc");
+        }
+
+        List<String> keyParts() {
+            List<String> parts = new ArrayList<>(flags.size() + 1);
+            parts.add(compiler);
+            parts.addAll(flags);
+            return parts;
+        }
+    }
+
+    private static final class TierStats {
+        long builds, failures, cacheHits, totalMillis, lastMillis;
+    }
+
+    private final CompileCache cache;
+    private final WorkspaceManager workspaces;
+    private final PchManager pch;
+    private final JobScheduler scheduler;
+    private final PipelineMetrics metrics;
+    private final ExecutorService executor;
+    private final boolean tiered;
+    private final Toolchain fast;
+    private final Toolchain optimized;
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> backgroundPending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong fastFallbacks = new AtomicLong();
+    private final ConcurrentHashMap<String, Optional<String>> compilerVersions = new ConcurrentHashMap<>();
+    private final Map<String, TierStats> tierStats = new LinkedHashMap<>();
+
+    public CompileService(CompileCache cache,
+                          WorkspaceManager workspaces,
+                          PchManager pch,
+                          JobScheduler scheduler,
+                          PipelineMetrics metrics,
+                          @Qualifier("ioExecutor") ExecutorService executor,
+                          @Value("${compilecloud.compile.tiered:true}") boolean tiered,
+                          @Value("${compilecloud.compile.fast-tier:tcc,gcc -O0 -pipe}") String fastTiers,
+                          @Value("${compilecloud.compile.optimized-tier:gcc -O2}") String optimizedTier) {
+        this.cache = cache;
+        this.workspaces = workspaces;
+        this.pch = pch;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.optimized = Toolchain.parse(OPTIMIZED_TIER, optimizedTier);
+        this.fast = firstAvailable(fastTiers);
+        this.tiered = tiered && fast != null;
+        tierStats.put(FAST_TIER, new TierStats());
+        tierStats.put(OPTIMIZED_TIER, new TierStats());
+    }
+
+    /** Builds the precompiled headers for both tiers once the application is up. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmPrecompiledHeaders() {
+        Map<Toolchain, String> toolchains = new LinkedHashMap<>();
+        for (Toolchain t : new Toolchain[] { fast, optimized }) {
+            if (t != null) compilerVersion(t.compiler()).ifPresent(v -> toolchains.put(t, v));
+        }
+        pch.warm(toolchains);
+    }
+
+    public Map<String, Object> pchStats() {
+        return pch.stats();
+    }
+
+    /**
+     * Places a runnable binary for {@code source} at {@code target}: the optimized build if one is
+     * cached, otherwise the fast build while the optimized one is queued in the background. A source
+     * the fast compiler rejects is built with the optimized toolchain before any error is reported,
+     * since tcc refuses plenty of C that gcc accepts.
+     */
+    public Result compileTiered(String source, Path target, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        if (!tiered) return compile(source, optimized, target, timeout, unit);
+
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        String optimizedKey = key(bytes, optimized);
+        String log = cache.copyTo(optimizedKey, target);
+        if (log != null) {
+            record(OPTIMIZED_TIER, true, true, 0);
+            Result hit = new Result(true, 0, log, false, true, sizeOf(target), OPTIMIZED_TIER, 0);
+            metrics.compiled(hit);
+            return hit;
+        }
+
+        Result result = compile(source, fast, target, timeout, unit);
+        if (result.success()) {
+            optimizeInBackground(source, optimizedKey);
+        } else if (!result.timedOut() && !fast.compiler().equals(optimized.compiler())) {
+            fastFallbacks.incrementAndGet();
+            result = compile(source, optimized, target, timeout, unit);
+        }
+        return result;
+    }
+
+    /** Compiles {@code source} with {@code toolchain} and places the binary at {@code target} (if non-null). */
+    public Result compile(String source, Toolchain toolchain, Path target, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        Result result = compileOnce(source, toolchain, target, timeout, unit);
+        metrics.compiled(result);
+        return result;
+    }
+
+    private Result compileOnce(String source, Toolchain toolchain, Path target, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        String key = key(bytes, toolchain);
+
+        String cachedLog = target != null ? cache.copyTo(key, target) : cache.contains(key) ? "" : null;
+        if (cachedLog != null) {
+            record(toolchain.tier(), true, true, 0);
+            return new Result(true, 0, cachedLog, false, true, sizeOf(target), toolchain.tier(), 0);
+        }
+
+        CompletableFuture<Result> mine = new CompletableFuture<>();
+        CompletableFuture<Result> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            // Someone is already compiling this exact source; wait for them and copy their binary.
+            Result shared;
+            try {
+                shared = running.get(timeout, unit);
+            } catch (TimeoutException e) {
+                return new Result(false, -1, "", true, false, 0, toolchain.tier(), unit.toMillis(timeout));
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            if (!shared.success() || target == null) return shared;
+            String log = cache.copyTo(key, target);
+            return log != null
+                    ? new Result(true, 0, log, false, true, sizeOf(target), toolchain.tier(), shared.millis())
+                    : compileOnce(source, toolchain, target, timeout, unit);
+        }
+
+        try {
+            long started = System.nanoTime();
+            Result result = runCompiler(key, source, bytes, toolchain, target, timeout, unit, started);
+            record(toolchain.tier(), result.success(), false, result.millis());
+            mine.complete(result);
+            return result;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public Map<String, Object> cacheStats() {
+        return cache.stats();
+    }
+
+    /** Per-tier build counts and latency; cache hits are counted but do not affect the averages. */
+    public Map<String, Object> tierStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("tiered", tiered);
+        m.put(FAST_TIER + "Toolchain", fast == null ? "unavailable" : String.join(" ", fast.keyParts()));
+        m.put(OPTIMIZED_TIER + "Toolchain", String.join(" ", optimized.keyParts()));
+        m.put("backgroundPending", backgroundPending.size());
+        m.put("fastFallbacks", fastFallbacks.get());
+        synchronized (tierStats) {
+            tierStats.forEach((tier, s) -> m.put(tier, Map.of(
+                    "builds", s.builds,
+                    "failures", s.failures,
+                    "cacheHits", s.cacheHits,
+                    "avgMillis", s.builds == 0 ? 0 : s.totalMillis / s.builds,
+                    "lastMillis", s.lastMillis)));
+        }
+        return m;
+    }
+
+    private void optimizeInBackground(String source, String optimizedKey) {
+        if (!backgroundPending.add(optimizedKey)) return;
+        try {
+            executor.execute(() -> {
+                // Background builds wait in the compile lane like everyone else, as one more owner.
+                try {
+                    JobScheduler.Permit permit = scheduler.acquire(JobScheduler.Lane.COMPILE, BACKGROUND_OWNER, null);
+                    try {
+                        compile(source, optimized, null, BACKGROUND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } finally {
+                        permit.close();
+                    }
+                } catch (RejectedExecutionException | IOException e) {
+                    // the next run of this source simply tries again
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    backgroundPending.remove(optimizedKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            backgroundPending.remove(optimizedKey);
+        }
+    }
+
+    private void record(String tier, boolean success, boolean cacheHit, long millis) {
+        synchronized (tierStats) {
+            TierStats s = tierStats.get(tier);
+            if (cacheHit) {
+                s.cacheHits++;
+            } else if (!success) {
+                s.failures++;
+            } else {
+                s.builds++;
+                s.totalMillis += millis;
+                s.lastMillis = millis;
+            }
+        }
+    }
+
+    private String key(byte[] source, Toolchain toolchain) {
+        return CompileCache.key(source, toolchain.keyParts(), compilerVersion(toolchain.compiler()).orElse("unknown"));
+    }
+
+    private Result runCompiler(String key, String text, byte[] source, Toolchain toolchain, Path target,
+                               long timeout, TimeUnit unit, long started)
+            throws IOException, InterruptedException {
+
+        // Fixed names keep diagnostics ("main.c:3:5: error...", or "<stdin>:3:5") identical across runs, so cacheable.
+        try (WorkspaceManager.Workspace ws = workspaces.open("build")) {
+            boolean fromStdin = workspaces.compileFromStdin() && toolchain.gccCompatible();
+            Path out = ws.resolve("main.out");
+            Path log = ws.resolve("gcc.log");
+
+            List<String> pchFlags = pch.includeFlags(toolchain, compilerVersion(toolchain.compiler()).orElse("unknown"), text);
+            List<String> cmd = new ArrayList<>();
+            cmd.add(toolchain.compiler());
+            cmd.addAll(pchFlags);
+            if (fromStdin) {
+                cmd.addAll(List.of("-x", "c", "-"));
+            } else {
+                Path src = ws.resolve("main.c");
+                Files.write(src, source);
+                ws.recordWrite(src);
+                cmd.add(src.getFileName().toString());
+            }
+            cmd.addAll(toolchain.flags());
+            cmd.add("-o");
+            cmd.add(out.getFileName().toString());
+
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.directory(ws.dir().toFile());
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(log.toFile()); // file sink: the compiler can never block on a full pipe
+            Process proc = pb.start();
+            if (fromStdin) {
+                try (OutputStream stdin = proc.getOutputStream()) {
+                    stdin.write(source);
+                } catch (IOException ignored) {
+                    // gcc exited before reading everything; its log says why
+                }
+            }
+
+            if (!Processes.awaitExit(proc, timeout, unit)) {
+                proc.destroyForcibly();
+                return new Result(false, -1, "", true, false, ws.bytesWritten(), toolchain.tier(), elapsedMillis(started));
+            }
+
+            int exit = proc.exitValue();
+            ws.recordWrite(log);
+            String output = Files.readString(log, StandardCharsets.UTF_8);
+            if (exit != 0 || !Files.exists(out)) {
+                return new Result(false, exit, output, false, false, ws.bytesWritten(), toolchain.tier(), elapsedMillis(started));
+            }
+
+            ws.recordWrite(out);
+            long millis = elapsedMillis(started);
+            pch.recordCompile(!pchFlags.isEmpty(), millis);
+            if (target != null) {
+                Files.copy(out, target, StandardCopyOption.REPLACE_EXISTING);
+                target.toFile().setExecutable(true);
+            }
+            cache.put(key, out, output);
+            return new Result(true, exit, output, false, false, ws.bytesWritten() + sizeOf(target), toolchain.tier(), millis);
+        }
+    }
+
+    private Toolchain firstAvailable(String specs) {
+        for (String spec : specs.split(",")) {
+            if (spec.isBlank()) continue;
+            Toolchain t = Toolchain.parse(FAST_TIER, spec);
+            if (compilerVersion(t.compiler()).isPresent()) return t;
+        }
+        return null;
+    }
+
+    private Optional<String> compilerVersion(String compiler) {
+        return compilerVersions.computeIfAbsent(compiler, CompileService::detectCompilerVersion);
+    }
+
+    private static long elapsedMillis(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    }
+
+    private static long sizeOf(Path file) {
+        if (file == null) return 0;
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Empty if the compiler is not installed. tcc has no --version, so fall back to -v.
+    private static Optional<String> detectCompilerVersion(String compiler) {
+        for (String flag : List.of("--version", "-v")) {
+            try {
+                Process p = new ProcessBuilder(compiler, flag).redirectErrorStream(true).start();
+                String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                if (p.waitFor() == 0) return Optional.of(out.lines().findFirst().orElse(compiler).trim());
+            } catch (IOException e) {
+                return Optional.empty();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -1,180 +1,185 @@
 package org.utej.compilecloud;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.io.*;
+import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 
+/**
+ * RUN:/INPUT: sessions. A run belongs to its {@link SessionOutputWriter}, not to the socket: if
+ * the socket drops mid-run the writer is parked under its resume token for
+ * {@code compilecloud.resume.grace-seconds}, and a client that reconnects with
+ * {@code ?resume=<token>&offset=<records seen>} gets the missed output and then the live run.
+ *
+ * <p>Client messages: RUN:&lt;source&gt;, INPUT:&lt;line&gt; (a newline is added), INPUT_FILE:&lt;id from
+ * POST /api/files/input&gt; to stream a whole uploaded file, and INPUT_EOF to close the program's stdin.
+ * Runs themselves are handed to a {@link WorkerPool} worker, in this process or another.
+ */
 @Component
-public class CompilerWebSocketHandler extends TextWebSocketHandler {
+public class CompilerWebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
+
+    // keyed by session id
+    private final ConcurrentHashMap<String, SessionOutputWriter> writers = new ConcurrentHashMap<>();
+    // keyed by writer token, so a run survives a reconnect
+    private final ConcurrentHashMap<String, Worker.Run> runs = new ConcurrentHashMap<>();
+    private final DetachedRuns<SessionOutputWriter> detached;
+    private final ExecutorService executorService;
+
+    private final WorkerPool workerPool;
+    private final WorkspaceManager workspaces;
+    private final PipelineMetrics.OutputMeter outputMeter;
+    private final int outputBatchChars;
+    private final long outputFlushMillis;
+    private final List<String> subProtocols;
+    private final int scrollbackBytes;
+    private final long scrollbackSpillBytes;
+    private final Path scrollbackDir;
+
+    public CompilerWebSocketHandler(WorkerPool workerPool,
+                                    WorkspaceManager workspaces,
+                                    PipelineMetrics metrics,
+                                    @Qualifier("ioExecutor") ExecutorService executorService,
+                                    @Value("${compilecloud.output.batch-chars:8192}") int outputBatchChars,
+                                    @Value("${compilecloud.output.flush-interval-ms:10}") long outputFlushMillis,
+                                    @Value("${compilecloud.ws.binary-frames:true}") boolean binaryFrames,
+                                    @Value("${compilecloud.resume.grace-seconds:30}") long resumeGraceSeconds,
+                                    @Value("${compilecloud.resume.buffer-bytes:262144}") int scrollbackBytes,
+                                    @Value("${compilecloud.resume.spill-bytes:16777216}") long scrollbackSpillBytes) {
+        this.workerPool = workerPool;
+        this.workspaces = workspaces;
+        this.outputMeter = metrics.output(PipelineMetrics.WS);
+        this.executorService = executorService;
+        this.outputBatchChars = outputBatchChars;
+        this.outputFlushMillis = outputFlushMillis;
+        this.subProtocols = WireProtocol.subProtocols(binaryFrames);
+        this.detached = new DetachedRuns<>(resumeGraceSeconds, executorService);
+        this.scrollbackBytes = scrollbackBytes;
+        this.scrollbackSpillBytes = scrollbackSpillBytes;
+        this.scrollbackDir = workspaces.scrollbackDir();
+        metrics.gauge("compilecloud.sessions.detached", "Runs waiting for their client to reconnect",
+                detached::size, "handler", PipelineMetrics.WS);
+    }
 
-    private final ConcurrentHashMap<String, Process> runningProcesses = new ConcurrentHashMap<>();
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-    private static final long COMPILE_TIMEOUT_SECONDS = 5;
-    private static final long EXECUTION_TIMEOUT_SECONDS = 10;
+    @Override
+    public List<String> getSubProtocols() {
+        return subProtocols;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        Map<String, String> query = resumeQuery(session.getUri());
+        SessionOutputWriter resumed = detached.attach(query.get("resume"));
+        if (resumed != null) {
+            writers.put(session.getId(), resumed);
+            resumed.attach(session, parseOffset(query.get("offset")));
+            return;
+        }
+        OutputLog log = detached.enabled() ? new OutputLog(scrollbackBytes, scrollbackSpillBytes, scrollbackDir) : null;
+        SessionOutputWriter writer = new SessionOutputWriter(session, outputBatchChars, outputFlushMillis, outputMeter, log);
+        writers.put(session.getId(), writer);
+        executorService.submit(writer);
+        if (log != null) writer.sendControl("RESUME:" + writer.token());
+    }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         String payload = message.getPayload();
 
+        SessionOutputWriter out = writers.get(session.getId());
+        if (out == null) return;
+
         if (payload.startsWith("RUN:")) {
-            String code = payload.substring(4);
-            executorService.submit(() -> executeCode(session, code));
+            startRun(out, payload.substring(4));
         } else if (payload.startsWith("INPUT:")) {
-            String input = payload.substring(6);
-            sendInputToProcess(session, input + "\n");
+            Worker.Run run = activeRun(out);
+            if (run != null) run.input((payload.substring(6) + "\n").getBytes(StandardCharsets.UTF_8));
+        } else if (payload.startsWith("INPUT_FILE:")) {
+            sendInputFile(out, payload.substring(11).trim());
+        } else if (payload.startsWith("INPUT_EOF")) {
+            Worker.Run run = runs.get(out.token());
+            if (run != null) run.eof();
         }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        stopProcess(session);
+        SessionOutputWriter writer = writers.remove(session.getId());
+        if (writer == null) return;
+        Worker.Run run = runs.get(writer.token());
+        if (resumable(status) && run != null && !run.done().isDone()) {
+            writer.detach();
+            detached.detach(writer.token(), writer, this::stop);
+        } else {
+            stop(writer);
+        }
     }
-    private void executeCode(WebSocketSession session, String code) {
-        Process runProcess = null;
-        File sourceFile = null;
-        String sessionId = session.getId();
-        Future<?> outputFuture = null;
-        Future<?> errorFuture = null;
 
-        try {
-            sourceFile = new File(sessionId + ".c");
-            File outputFile = new File(sessionId + ".out");
-            try (PrintWriter writer = new PrintWriter(sourceFile)) { writer.print(code); }
-
-            synchronized (session) { session.sendMessage(new TextMessage("BUILD_LOG: Compiling...\n")); }
-            ProcessBuilder compileBuilder = new ProcessBuilder("gcc", sourceFile.getName(), "-o", outputFile.getName());
-            compileBuilder.directory(sourceFile.getParentFile());
-            Process compileProcess = compileBuilder.start();
-
-            boolean compiledWithinTime = compileProcess.waitFor(COMPILE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-
-            if (!compiledWithinTime) {
-                compileProcess.destroyForcibly();
-                synchronized (session) {
-                    session.sendMessage(new TextMessage("ERROR: Compilation timed out."));
-                }
-                return;
-            }
-
-            int exitCode = compileProcess.exitValue();
-            String compileError = readStream(compileProcess.getErrorStream());
-
-            if (exitCode != 0) {
-                synchronized (session) {
-                    session.sendMessage(new TextMessage("ERROR: Compilation Failed (Exit Code: " + exitCode + ")\n" + compileError));
-                }
-                return;
-            }
-
-            synchronized (session) {
-                session.sendMessage(new TextMessage("BUILD_LOG: Compilation successful. Running...\n"));
-            }
-            ProcessBuilder runBuilder = new ProcessBuilder("./" + outputFile.getName());
-            runBuilder.directory(sourceFile.getParentFile());
-            runProcess = runBuilder.start();
-
-            runningProcesses.put(sessionId, runProcess);
-
-            StreamGobbler outputGobbler = new StreamGobbler(runProcess.getInputStream(), session, "OUTPUT:");
-            StreamGobbler errorGobbler = new StreamGobbler(runProcess.getErrorStream(), session, "OUTPUT: [Error] ");
-
-            outputFuture = executorService.submit(outputGobbler);
-            errorFuture = executorService.submit(errorGobbler);
-
-            if (!runProcess.waitFor(EXECUTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
-                runProcess.destroyForcibly();
-                outputFuture.cancel(true);
-                errorFuture.cancel(true);
-
-                synchronized (session) {
-                    session.sendMessage(new TextMessage("OUTPUT: \r\n\u001b[31;1m*** PROCESS KILLED (Timeout) ***\u001b[0m\r\n"));
-                    session.sendMessage(new TextMessage("END:TIMEOUT"));
-                }
-            } else {
-                outputFuture.get();
-                errorFuture.get();
-
-                synchronized (session) {
-                    session.sendMessage(new TextMessage("OUTPUT:\r\nProcess exited with status: " + runProcess.exitValue() + "\r\n"));
-                    session.sendMessage(new TextMessage("END:SUCCESS"));
-                }
-            }
-
-        } catch (Exception e) {
-            try {
-                synchronized (session) {
-                    session.sendMessage(new TextMessage("ERROR: An internal server error occurred: " + e.getMessage()));
-                }
-            } catch (IOException ioException) { /* ignored */ }
-        } finally {
-            stopProcess(session);
-            if (sourceFile != null) {
-                new File(sessionId + ".out").delete();
-                sourceFile.delete();
-            }
-        }
+    private void stop(SessionOutputWriter writer) {
+        Worker.Run run = runs.remove(writer.token());
+        if (run != null) run.cancel();
+        writer.close();
     }
-    private void sendInputToProcess(WebSocketSession session, String input) throws IOException {
-        Process process = runningProcesses.get(session.getId());
-        if (process != null && process.isAlive()) {
-            try (OutputStream os = process.getOutputStream()) {
-                os.write(input.getBytes(StandardCharsets.UTF_8));
-                os.flush();
-            }
-        } else {
-            synchronized (session) {
-                session.sendMessage(new TextMessage("OUTPUT: \r\n\u001b[31;1mError:\u001b[0m No active program running to receive input.\r\n"));
-            }
+
+    private void startRun(SessionOutputWriter out, String code) {
+        String token = out.token();
+        Worker.Run run;
+        try {
+            run = workerPool.start(token, code, out);
+        } catch (IOException e) {
+            out.send("ERROR: No worker is available to run the program, please try again shortly.");
+            return;
         }
+        Worker.Run previous = runs.put(token, run);
+        if (previous != null) previous.cancel();
+        run.done().thenRun(() -> runs.remove(token, run));
     }
 
-    private void stopProcess(WebSocketSession session) {
-        Process process = runningProcesses.remove(session.getId());
-        if (process != null && process.isAlive()) {
-            process.destroyForcibly();
-        }
+    private Worker.Run activeRun(SessionOutputWriter out) {
+        Worker.Run run = runs.get(out.token());
+        if (run == null) out.send(EmbeddedWorker.NO_PROGRAM);
+        return run;
     }
 
-    private String readStream(InputStream is) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) { sb.append(line).append("\n"); }
-            return sb.toString();
+    private void sendInputFile(SessionOutputWriter out, String inputId) {
+        Path file = workspaces.input(inputId);
+        if (!Files.isRegularFile(file)) {
+            out.send("OUTPUT: \r\n\u001b[31;1mError:\u001b[0m Unknown input file " + inputId + ".\r\n");
+            return;
         }
+        Worker.Run run = activeRun(out);
+        if (run != null) run.inputFile(file);
     }
 
-    private static class StreamGobbler implements Runnable {
-        private final InputStream inputStream;
-        private final WebSocketSession session;
-        private final String prefix;
+    /** The resume=&lt;token&gt; and offset=&lt;n&gt; query parameters of a reconnect, if any. */
+    static Map<String, String> resumeQuery(URI uri) {
+        return uri == null ? Map.of() : UriComponentsBuilder.fromUri(uri).build().getQueryParams().toSingleValueMap();
+    }
 
-        public StreamGobbler(InputStream inputStream, WebSocketSession session, String prefix) {
-            this.inputStream = inputStream;
-            this.session = session;
-            this.prefix = prefix;
-        }
+    /** A client that closes with 1000 (the Stop button) is done with the run; any other close may come back. */
+    private boolean resumable(CloseStatus status) {
+        return detached.enabled() && status.getCode() != CloseStatus.NORMAL.getCode();
+    }
 
-        @Override
-        public void run() {
-            try (InputStreamReader isr = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
-                int character;
-                while ((character = isr.read()) != -1) {
-                    if (session.isOpen()) {
-                        String output = prefix + (char) character;
-                        synchronized (session) {
-                            session.sendMessage(new TextMessage(output));
-                        }
-                    } else { break; }
-                }
-            } catch (IOException e) {  }
+    static long parseOffset(String offset) {
+        try {
+            return offset == null ? 0 : Math.max(0, Long.parseLong(offset));
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
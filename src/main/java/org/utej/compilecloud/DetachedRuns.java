@@ -0,0 +1,57 @@
+package org.utej.compilecloud;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs whose client disconnected, kept by resume token for a grace period. A client that
+ * reconnects with the token in time takes the run back; otherwise it is handed to the expiry
+ * callback, which stops it the way a disconnect used to. Each detach has its own grace period:
+ * the timer of an earlier detach of the same run does nothing once the run has been taken back.
+ */
+final class DetachedRuns<T> {
+
+    // One per detach; compared by identity, so a timer only expires the detach that scheduled it.
+    private static final class Detached<T> {
+        final T run;
+
+        Detached(T run) {
+            this.run = run;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Detached<T>> byToken = new ConcurrentHashMap<>();
+    private final long graceSeconds;
+    private final Executor executor;
+
+    DetachedRuns(long graceSeconds, Executor executor) {
+        this.graceSeconds = graceSeconds;
+        this.executor = executor;
+    }
+
+    /** With no grace period a disconnect stops the run at once. */
+    boolean enabled() {
+        return graceSeconds > 0;
+    }
+
+    void detach(String token, T run, Consumer<T> onExpire) {
+        Detached<T> detached = new Detached<>(run);
+        byToken.put(token, detached);
+        CompletableFuture.delayedExecutor(graceSeconds, TimeUnit.SECONDS, executor).execute(() -> {
+            if (byToken.remove(token, detached)) onExpire.accept(run);
+        });
+    }
+
+    /** The run detached under {@code token}, now owned by the caller, or null if there is none (any more). */
+    T attach(String token) {
+        Detached<T> detached = token == null ? null : byToken.remove(token);
+        return detached == null ? null : detached.run;
+    }
+
+    int size() {
+        return byToken.size();
+    }
+}
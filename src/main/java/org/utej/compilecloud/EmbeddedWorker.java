@@ -0,0 +1,294 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs RUN: jobs in this JVM: compile under a compile-lane permit, then run the binary on a
+ * pre-spawned launcher under an execute-lane permit, streaming stdout/stderr to the sink.
+ * A worker process ({@link WorkerServer}) serves remote front ends with this same class.
+ */
+@Component
+public class EmbeddedWorker implements Worker {
+
+    private static final long COMPILE_TIMEOUT_SECONDS = 5;
+    static final String NO_PROGRAM =
+            "OUTPUT: \r\n\u001b[31;1mError:\u001b[0m No active program running to receive input.\r\n";
+    private static final String INPUT_CLOSED =
+            "OUTPUT: \r\n\u001b[31;1mError:\u001b[0m The program's input is closed.\r\n";
+
+    private final CompileService compileService;
+    private final WorkspaceManager workspaces;
+    private final JobScheduler scheduler;
+    private final LauncherPool launchers;
+    private final ResourceLimits.Profile runProfile;
+    private final PipelineMetrics metrics;
+    private final ExecutorService executor;
+    private final long maxOutputBytes;
+    private final long maxPendingInputBytes;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public EmbeddedWorker(CompileService compileService,
+                          WorkspaceManager workspaces,
+                          JobScheduler scheduler,
+                          ResourceLimits limits,
+                          LauncherPool launchers,
+                          PipelineMetrics metrics,
+                          @Qualifier("ioExecutor") ExecutorService executor,
+                          @Value("${compilecloud.output.max-bytes-per-run:16777216}") long maxOutputBytes,
+                          @Value("${compilecloud.input.max-pending-bytes:1048576}") long maxPendingInputBytes,
+                          @Value("${compilecloud.limits.run-profile:default}") String runProfile) {
+        this.compileService = compileService;
+        this.workspaces = workspaces;
+        this.scheduler = scheduler;
+        this.launchers = launchers;
+        this.runProfile = limits.profile(runProfile);
+        this.metrics = metrics;
+        this.executor = executor;
+        this.maxOutputBytes = maxOutputBytes;
+        this.maxPendingInputBytes = maxPendingInputBytes;
+        metrics.gauge("compilecloud.processes.running", "Programs running for RUN: sessions", running::get);
+    }
+
+    @Override
+    public String id() {
+        return "embedded";
+    }
+
+    @Override
+    public int active() {
+        return active.get();
+    }
+
+    @Override
+    public int slots() {
+        return scheduler.limit(JobScheduler.Lane.EXECUTE);
+    }
+
+    @Override
+    public boolean healthy() {
+        return true;
+    }
+
+    @Override
+    public Run start(String owner, String source, Sink sink) {
+        EmbeddedRun run = new EmbeddedRun(sink);
+        active.incrementAndGet();
+        run.task = executor.submit(() -> {
+            if (!run.started.compareAndSet(false, true)) return;
+            try {
+                execute(run, owner, source);
+            } finally {
+                run.finish();
+            }
+        });
+        return run;
+    }
+
+    private final class EmbeddedRun implements Run {
+        final Sink out;
+        final AtomicBoolean started = new AtomicBoolean();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile Future<?> task;
+        volatile Process process;
+        volatile StdinPipe stdin;
+
+        EmbeddedRun(Sink out) {
+            this.out = out;
+        }
+
+        @Override
+        public void input(byte[] data) {
+            StdinPipe pipe = stdin;
+            if (pipe == null) {
+                out.send(NO_PROGRAM);
+            } else if (!pipe.write(data)) {
+                out.send(pipe.isOpen()
+                        ? "OUTPUT: \r\n\u001b[31;1mError:\u001b[0m Input is arriving faster than the program reads it; line dropped.\r\n"
+                        : INPUT_CLOSED);
+            }
+        }
+
+        @Override
+        public void inputFile(Path file) {
+            StdinPipe pipe = stdin;
+            if (pipe == null) out.send(NO_PROGRAM);
+            else if (!pipe.transfer(file)) out.send(INPUT_CLOSED);
+        }
+
+        @Override
+        public void eof() {
+            StdinPipe pipe = stdin;
+            if (pipe != null) pipe.eof();
+        }
+
+        @Override
+        public void cancel() {
+            Future<?> t = task;
+            if (t != null) t.cancel(true);
+            stopProcess(this);
+            // Cancelled before it ever ran: nothing else will finish it.
+            if (started.compareAndSet(false, true)) finish();
+        }
+
+        @Override
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        void finish() {
+            active.decrementAndGet();
+            done.complete(null);
+        }
+    }
+
+    private void execute(EmbeddedRun run, String owner, String code) {
+        Sink out = run.out;
+        Process runProcess = null;
+        WorkspaceManager.Workspace workspace = null;
+        Future<?> outputFuture = null;
+        Future<?> errorFuture = null;
+        JobScheduler.Permit runPermit = null;
+        LauncherPool.Launch launch = null;
+
+        try {
+            workspace = workspaces.open(owner);
+            File outputFile = workspace.resolve("main.out").toFile();
+
+            CompileService.Result compiled;
+            JobScheduler.Permit compilePermit = scheduler.acquire(JobScheduler.Lane.COMPILE, owner, queuedNotice(out));
+            try {
+                out.send("BUILD_LOG: Compiling...\n");
+                compiled = compileService.compileTiered(
+                        code, outputFile.toPath(), COMPILE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } finally {
+                compilePermit.close();
+            }
+            workspace.recordWrite(outputFile.toPath());
+
+            if (compiled.timedOut()) {
+                out.send("ERROR: Compilation timed out.");
+                return;
+            }
+
+            int exitCode = compiled.exitCode();
+            String compileError = compiled.output();
+
+            if (!compiled.success()) {
+                out.send("ERROR: Compilation Failed (Exit Code: " + exitCode + ")\n" + compileError);
+                return;
+            }
+
+            out.send("BUILD_LOG: Compilation successful (" + compiled.tier()
+                    + (compiled.cached() ? ", cached" : ", " + compiled.millis() + " ms") + "). Running...\n");
+            runPermit = scheduler.acquire(JobScheduler.Lane.EXECUTE, owner, queuedNotice(out));
+            long runStarted = System.nanoTime();
+            launch = launchers.start(LauncherPool.Kind.PIPE, runProfile, workspace.dir(), "./" + outputFile.getName());
+            runProcess = launch.process();
+
+            StdinPipe stdin = new StdinPipe(runProcess.getOutputStream(), maxPendingInputBytes);
+            synchronized (run) {
+                run.process = runProcess;
+                run.stdin = stdin;
+            }
+            running.incrementAndGet();
+            executor.submit(stdin);
+
+            AtomicLong outputBudget = new AtomicLong(maxOutputBytes);
+            AtomicBoolean outputCapped = new AtomicBoolean();
+            Process proc = runProcess;
+            Runnable capOutput = () -> {
+                outputCapped.set(true);
+                Processes.killTree(proc);
+            };
+            AtomicBoolean sawOutput = new AtomicBoolean();
+            LauncherPool.Launch started = launch;
+            Runnable firstOutput = () -> {
+                if (sawOutput.compareAndSet(false, true)) {
+                    launchers.firstOutput(started, System.nanoTime() - runStarted);
+                }
+            };
+            StreamGobbler outputGobbler = new StreamGobbler(runProcess.getInputStream(), out, "OUTPUT:", outputBudget, capOutput, firstOutput);
+            StreamGobbler errorGobbler = new StreamGobbler(runProcess.getErrorStream(), out, WireProtocol.STDERR_PREFIX, outputBudget, capOutput, firstOutput);
+
+            outputFuture = executor.submit(outputGobbler);
+            errorFuture = executor.submit(errorGobbler);
+
+            if (!Processes.awaitExit(runProcess, runProfile.wallSeconds(), TimeUnit.SECONDS)) {
+                Processes.killTree(runProcess);
+                outputFuture.cancel(true);
+                errorFuture.cancel(true);
+
+                metrics.run(PipelineMetrics.WS, "timeout", System.nanoTime() - runStarted);
+                out.send("OUTPUT: \r\n\u001b[31;1m*** PROCESS KILLED (Timeout) ***\u001b[0m\r\n");
+                out.send("END:TIMEOUT");
+            } else if (outputCapped.get()) {
+                outputFuture.cancel(true);
+                errorFuture.cancel(true);
+
+                metrics.run(PipelineMetrics.WS, "output_limit", System.nanoTime() - runStarted);
+                out.send("OUTPUT: \r\n\u001b[31;1m*** PROCESS KILLED (Output limit of " + maxOutputBytes + " bytes) ***\u001b[0m\r\n");
+                out.send("END:OUTPUT_LIMIT");
+            } else if (launch.sandbox().killedBy(runProcess.exitValue()) instanceof ResourceLimits.Violation violation) {
+                metrics.run(PipelineMetrics.WS, "limit", System.nanoTime() - runStarted);
+                metrics.limitKill(PipelineMetrics.WS, violation);
+                outputFuture.get();
+                errorFuture.get();
+
+                out.send("OUTPUT: \r\n\u001b[31;1m*** PROCESS KILLED (" + violation.message() + ") ***\u001b[0m\r\n");
+                out.send("END:LIMIT");
+            } else {
+                metrics.run(PipelineMetrics.WS, "exited", System.nanoTime() - runStarted);
+                outputFuture.get();
+                errorFuture.get();
+
+                out.send("OUTPUT:\r\nProcess exited with status: " + runProcess.exitValue() + "\r\n");
+                out.send("END:SUCCESS");
+            }
+
+        } catch (RejectedExecutionException e) {
+            out.send("ERROR: Server busy, please try again shortly.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            out.send("ERROR: An internal server error occurred: " + e.getMessage());
+        } finally {
+            stopProcess(run);
+            if (launch != null) launch.close();
+            if (runPermit != null) runPermit.close();
+            if (workspace != null) {
+                workspace.close();
+            }
+        }
+    }
+
+    private static IntConsumer queuedNotice(Sink out) {
+        return position -> out.send("QUEUED:" + position);
+    }
+
+    private void stopProcess(EmbeddedRun run) {
+        StdinPipe stdin;
+        Process process;
+        synchronized (run) {
+            stdin = run.stdin;
+            process = run.process;
+            run.stdin = null;
+            run.process = null;
+        }
+        if (stdin != null) stdin.close();
+        if (process != null) {
+            running.decrementAndGet();
+            if (process.isAlive()) Processes.killTree(process);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class IoConfig {
+
+    /**
+     * Runs the blocking per-session work: job runners, stream gobblers and output writers.
+     * Virtual threads by default; set compilecloud.io.virtual-threads=false to compare against platform threads.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService ioExecutor(@Value("${compilecloud.io.virtual-threads:true}") boolean virtualThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("io-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(Thread.ofPlatform().name("io-", 0).daemon(true).factory());
+    }
+}
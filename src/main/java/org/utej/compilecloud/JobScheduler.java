@@ -0,0 +1,212 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Admission control for gcc and user programs.
+ * Each lane runs at most {@code limit} jobs at once; the rest wait in per-owner queues that are
+ * served round-robin, so one session queuing many jobs cannot starve the others.
+ * Waiters are told their 1-based queue position whenever it changes, on their own thread and
+ * without the lane lock held, so a slow callback only delays its own job.
+ */
+@Component
+public class JobScheduler {
+
+    public enum Lane { COMPILE, EXECUTE }
+
+    /** Held while a job runs; closing it hands the slot to the next waiter. */
+    public static final class Permit implements AutoCloseable {
+        private final LaneQueue lane;
+        private boolean released;
+
+        private Permit(LaneQueue lane) { this.lane = lane; }
+
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+            lane.release();
+        }
+    }
+
+    private final EnumMap<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    private final PipelineMetrics metrics;
+
+    public JobScheduler(@Value("${compilecloud.scheduler.compile-concurrency:0}") int compileConcurrency,
+                        @Value("${compilecloud.scheduler.execute-concurrency:0}") int executeConcurrency,
+                        @Value("${compilecloud.scheduler.max-queue:256}") int maxQueue,
+                        PipelineMetrics metrics) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        lanes.put(Lane.COMPILE, new LaneQueue(compileConcurrency > 0 ? compileConcurrency : cpus, maxQueue));
+        lanes.put(Lane.EXECUTE, new LaneQueue(executeConcurrency > 0 ? executeConcurrency : cpus, maxQueue));
+        this.metrics = metrics;
+        // The gauges read the lane queues directly, so the half-built scheduler never escapes.
+        lanes.forEach((lane, q) -> {
+            String tag = lane.name().toLowerCase();
+            metrics.gauge("compilecloud.scheduler.queued", "Jobs waiting for a slot", q::queued, "lane", tag);
+            metrics.gauge("compilecloud.scheduler.running", "Jobs holding a slot", q::running, "lane", tag);
+        });
+    }
+
+    /**
+     * Blocks until {@code owner} may start a job on {@code lane}.
+     * {@code onQueued} receives the queue position while waiting (never called if a slot is free),
+     * on the calling thread; it may block without holding up the lane.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full
+     */
+    public Permit acquire(Lane lane, String owner, IntConsumer onQueued) throws InterruptedException {
+        LaneQueue q = lanes.get(lane);
+        long started = System.nanoTime();
+        q.acquire(owner, onQueued);
+        metrics.queueWait(lane, System.nanoTime() - started);
+        return new Permit(q);
+    }
+
+    public int running(Lane lane) { return lanes.get(lane).running(); }
+
+    public int queued(Lane lane) { return lanes.get(lane).queued(); }
+
+    public int limit(Lane lane) { return lanes.get(lane).limit; }
+
+    private static final class Waiter {
+        final IntConsumer onQueued;
+        final Condition changed;   // signalled on a grant or a new position
+        boolean isGranted;
+        int lastPosition;
+        int reportedPosition;
+
+        Waiter(IntConsumer onQueued, Condition changed) {
+            this.onQueued = onQueued;
+            this.changed = changed;
+        }
+    }
+
+    private static final class LaneQueue {
+        final int limit;
+        final int maxQueue;
+        final ReentrantLock lock = new ReentrantLock();
+        // Owners in round-robin order; an owner moves to the back after each grant.
+        final LinkedHashMap<String, ArrayDeque<Waiter>> byOwner = new LinkedHashMap<>();
+        int running;
+        int queued;
+
+        LaneQueue(int limit, int maxQueue) {
+            this.limit = limit;
+            this.maxQueue = maxQueue;
+        }
+
+        void acquire(String owner, IntConsumer onQueued) throws InterruptedException {
+            lock.lock();
+            try {
+                if (running < limit && queued == 0) {
+                    running++;
+                    return;
+                }
+                if (queued >= maxQueue) throw new RejectedExecutionException("Queue full");
+
+                Waiter w = new Waiter(onQueued, lock.newCondition());
+                byOwner.computeIfAbsent(owner, k -> new ArrayDeque<>()).addLast(w);
+                queued++;
+                reportPositions();
+                try {
+                    while (!w.isGranted) {
+                        if (w.onQueued != null && w.reportedPosition != w.lastPosition) {
+                            int position = w.reportedPosition = w.lastPosition;
+                            lock.unlock();
+                            try {
+                                w.onQueued.accept(position);
+                            } finally {
+                                lock.lock();
+                            }
+                        } else {
+                            w.changed.await();
+                        }
+                    }
+                } catch (InterruptedException | RuntimeException e) {
+                    if (w.isGranted) {
+                        running--;
+                        grantNext();
+                    } else {
+                        ArrayDeque<Waiter> mine = byOwner.get(owner);
+                        mine.remove(w);
+                        if (mine.isEmpty()) byOwner.remove(owner);
+                        queued--;
+                    }
+                    reportPositions();
+                    throw e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                running--;
+                grantNext();
+                reportPositions();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int running() {
+            lock.lock();
+            try { return running; } finally { lock.unlock(); }
+        }
+
+        int queued() {
+            lock.lock();
+            try { return queued; } finally { lock.unlock(); }
+        }
+
+        // Must hold the lock.
+        private void grantNext() {
+            while (running < limit && queued > 0) {
+                Iterator<Map.Entry<String, ArrayDeque<Waiter>>> it = byOwner.entrySet().iterator();
+                Map.Entry<String, ArrayDeque<Waiter>> first = it.next();
+                String owner = first.getKey();
+                ArrayDeque<Waiter> waiters = first.getValue();
+                it.remove();
+                Waiter w = waiters.pollFirst();
+                if (!waiters.isEmpty()) byOwner.put(owner, waiters);
+
+                queued--;
+                running++;
+                w.isGranted = true;
+                w.changed.signal();
+            }
+        }
+
+        // Must hold the lock. Positions follow the round-robin grant order; each waiter reports its own.
+        private void reportPositions() {
+            List<Iterator<Waiter>> cursors = new ArrayList<>(byOwner.size());
+            for (ArrayDeque<Waiter> q : byOwner.values()) cursors.add(q.iterator());
+
+            int position = 0;
+            boolean any = true;
+            while (any) {
+                any = false;
+                for (Iterator<Waiter> c : cursors) {
+                    if (!c.hasNext()) continue;
+                    any = true;
+                    Waiter w = c.next();
+                    position++;
+                    if (w.lastPosition != position) {
+                        w.lastPosition = position;
+                        w.changed.signal();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Batch grading: one submission, many stdin test cases, one request.
+ * {@code /api/judge} answers with the whole summary; {@code /api/judge/stream} sends a "compiled"
+ * event, a "case" event as each case finishes, and the summary as "done".
+ */
+@RestController
+@RequestMapping("/api/judge")
+@CrossOrigin("*")
+public class JudgeController {
+
+    private static final long SSE_TIMEOUT_MILLIS = 600_000;
+
+    /**
+     * {@code compare} is "exact" (default) or "whitespace"; {@code timeoutMillis} is per case.
+     * Set {@code nondeterministic} for programs whose output varies between runs, so no case is replayed.
+     */
+    public record JudgeRequest(String code, List<JudgeService.TestCase> cases, String compare, Long timeoutMillis,
+                               Boolean nondeterministic) {}
+
+    private final JudgeService judge;
+    private final ResultCache results;
+    private final ExecutorService executor;
+
+    public JudgeController(JudgeService judge, ResultCache results, @Qualifier("ioExecutor") ExecutorService executor) {
+        this.judge = judge;
+        this.results = results;
+        this.executor = executor;
+    }
+
+    @PostMapping
+    public CompletableFuture<Map<String, Object>> judge(@RequestBody JudgeRequest body) {
+        Map<String, Object> invalid = validate(body);
+        if (invalid != null) return CompletableFuture.completedFuture(invalid);
+        return CompletableFuture.supplyAsync(() -> run(body, new JudgeService.Listener() {}), executor);
+    }
+
+    @PostMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter judgeStream(@RequestBody JudgeRequest body) {
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MILLIS);
+        Map<String, Object> invalid = validate(body);
+        if (invalid != null) {
+            sendQuietly(emitter, "done", invalid);
+            emitter.complete();
+            return emitter;
+        }
+        executor.execute(() -> {
+            Map<String, Object> summary = run(body, new JudgeService.Listener() {
+                @Override
+                public void compiled(CompileService.Result r) {
+                    sendQuietly(emitter, "compiled", Map.of("success", r.success(), "tier", r.tier(),
+                            "cached", r.cached(), "compileMillis", r.millis()));
+                }
+
+                @Override
+                public void caseFinished(JudgeService.CaseResult r) {
+                    sendQuietly(emitter, "case", r.toMap());
+                }
+            });
+            sendQuietly(emitter, "done", summary);
+            emitter.complete();
+        });
+        return emitter;
+    }
+
+    @GetMapping("/results")
+    public Map<String, Object> resultCacheStats() {
+        return results.stats();
+    }
+
+    private Map<String, Object> run(JudgeRequest body, JudgeService.Listener listener) {
+        JudgeService.Compare compare = "whitespace".equalsIgnoreCase(body.compare())
+                ? JudgeService.Compare.WHITESPACE : JudgeService.Compare.EXACT;
+        long timeout = body.timeoutMillis() == null ? 0 : body.timeoutMillis();
+        try {
+            return judge.judge(body.code(), body.cases(), compare, timeout,
+                    Boolean.TRUE.equals(body.nondeterministic()), listener);
+        } catch (RejectedExecutionException e) {
+            return Map.of("status","error","msg","Server busy, try again shortly");
+        } catch (IOException e) {
+            return Map.of("status","error","msg","Judge failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Map.of("status","error","msg","Judge interrupted");
+        }
+    }
+
+    private Map<String, Object> validate(JudgeRequest body) {
+        if (body.code() == null) return Map.of("status","error","msg","Missing code");
+        if (body.cases() == null || body.cases().isEmpty()) return Map.of("status","error","msg","Missing cases");
+        if (body.cases().size() > judge.maxCases()) {
+            return Map.of("status","error","msg","At most " + judge.maxCases() + " cases per request");
+        }
+        if (body.compare() != null && !body.compare().equalsIgnoreCase("exact")
+                && !body.compare().equalsIgnoreCase("whitespace")) {
+            return Map.of("status","error","msg","compare must be exact or whitespace");
+        }
+        return null;
+    }
+
+    private static void sendQuietly(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException ignored) {
+            // client went away; the batch still finishes
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch runs for grading: a submission is compiled once and its binary run against every test
+ * case, several at a time. Each case takes an execute slot from the scheduler like any other run,
+ * so a large batch shares the machine fairly with interactive sessions, and gets its own scratch
+ * directory and the judge limits profile.
+ *
+ * <p>With {@link ResultCache} enabled, a case whose binary, stdin and profile were seen before is
+ * replayed from the recorded result without taking an execute slot. Submissions flagged
+ * non-deterministic, or whose source looks it, always execute.
+ */
+@Service
+public class JudgeService {
+
+    public enum Compare { EXACT, WHITESPACE }
+
+    public enum Verdict { ACCEPTED, WRONG_ANSWER, TIME_LIMIT, OUTPUT_LIMIT, RESOURCE_LIMIT, RUNTIME_ERROR, INTERNAL_ERROR }
+
+    public record TestCase(String name, String input, String expected) {}
+
+    /**
+     * {@code detail} is empty for accepted cases, otherwise the start of stderr or the reason.
+     * {@code replayed} cases were answered from the result cache; {@code millis} is then the recorded run's.
+     */
+    public record CaseResult(int index, String name, Verdict verdict, int exitCode, long millis, String detail,
+                             boolean replayed) {
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("index", index);
+            m.put("name", name);
+            m.put("verdict", verdict.name());
+            m.put("exitCode", exitCode);
+            m.put("millis", millis);
+            if (!detail.isEmpty()) m.put("detail", detail);
+            if (replayed) m.put("replayed", true);
+            return m;
+        }
+    }
+
+    /** Receives progress as the batch runs; called from worker threads. */
+    public interface Listener {
+        default void compiled(CompileService.Result result) {}
+        default void caseFinished(CaseResult result) {}
+    }
+
+    private static final long COMPILE_TIMEOUT_SECONDS = 30;
+    private static final int DETAIL_CHARS = 1024;
+
+    private final CompileService compileService;
+    private final WorkspaceManager workspaces;
+    private final JobScheduler scheduler;
+    private final LauncherPool launchers;
+    private final ResultCache results;
+    private final PipelineMetrics metrics;
+    private final ExecutorService executor;
+    private final ResourceLimits.Profile profile;
+    private final int parallelism;
+    private final int maxCases;
+    private final long maxOutputBytes;
+
+    public JudgeService(CompileService compileService,
+                        WorkspaceManager workspaces,
+                        JobScheduler scheduler,
+                        ResourceLimits limits,
+                        LauncherPool launchers,
+                        ResultCache results,
+                        PipelineMetrics metrics,
+                        @Qualifier("ioExecutor") ExecutorService executor,
+                        @Value("${compilecloud.judge.profile:default}") String profile,
+                        @Value("${compilecloud.judge.parallelism:0}") int parallelism,
+                        @Value("${compilecloud.judge.max-cases:200}") int maxCases,
+                        @Value("${compilecloud.judge.max-output-bytes:1048576}") long maxOutputBytes) {
+        this.compileService = compileService;
+        this.workspaces = workspaces;
+        this.scheduler = scheduler;
+        this.launchers = launchers;
+        this.results = results;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.profile = limits.profile(profile);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.maxCases = maxCases;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    public int maxCases() {
+        return maxCases;
+    }
+
+    /**
+     * Compiles {@code code} and runs it against {@code cases}. A case may run for {@code timeoutMillis},
+     * or the profile's wall clock if that is shorter or {@code timeoutMillis} is not positive.
+     * Returns a summary; per-case results are in it in input order and also go to {@code listener}
+     * as they finish. {@code nondeterministic} keeps the batch away from the result cache.
+     *
+     * @throws RejectedExecutionException if the scheduler's queue is full
+     */
+    public Map<String, Object> judge(String code, List<TestCase> cases, Compare compare, long timeoutMillis,
+                                     boolean nondeterministic, Listener listener) throws IOException, InterruptedException {
+        String owner = "judge-" + UUID.randomUUID().toString().substring(0, 8);
+        long wallMillis = TimeUnit.SECONDS.toMillis(profile.wallSeconds());
+        long caseTimeout = timeoutMillis > 0 ? Math.min(timeoutMillis, wallMillis) : wallMillis;
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        try (WorkspaceManager.Workspace build = workspaces.open(owner)) {
+            Path binary = build.resolve("main.out");
+            CompileService.Result compiled;
+            JobScheduler.Permit permit = scheduler.acquire(JobScheduler.Lane.COMPILE, owner, null);
+            try {
+                compiled = compileService.compileTiered(code, binary, COMPILE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } finally {
+                permit.close();
+            }
+            build.recordWrite(binary);
+            listener.compiled(compiled);
+            if (!compiled.success()) {
+                summary.put("status", "compile_error");
+                summary.put("output", compiled.timedOut() ? "Compilation timed out." : compiled.output());
+                return summary;
+            }
+
+            String binaryHash = null;
+            if (results.enabled()) {
+                if (nondeterministic || ResultCache.looksNondeterministic(code)) results.bypass();
+                else binaryHash = ResultCache.hash(binary);
+            }
+
+            long started = System.nanoTime();
+            CaseResult[] caseResults = runAll(owner, binary.toAbsolutePath(), binaryHash, cases, compare, caseTimeout, listener);
+
+            Map<String, Integer> verdicts = new TreeMap<>();
+            List<Map<String, Object>> rows = new ArrayList<>(caseResults.length);
+            for (CaseResult r : caseResults) {
+                verdicts.merge(r.verdict().name(), 1, Integer::sum);
+                rows.add(r.toMap());
+            }
+            summary.put("status", "ok");
+            summary.put("tier", compiled.tier());
+            summary.put("cached", compiled.cached());
+            summary.put("compileMillis", compiled.millis());
+            summary.put("passed", verdicts.getOrDefault(Verdict.ACCEPTED.name(), 0));
+            summary.put("total", caseResults.length);
+            summary.put("verdicts", verdicts);
+            summary.put("runMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            summary.put("cases", rows);
+            return summary;
+        }
+    }
+
+    // At most `parallelism` cases in flight for this batch; each also needs an execute slot.
+    private CaseResult[] runAll(String owner, Path binary, String binaryHash, List<TestCase> cases, Compare compare,
+                                long timeoutMillis, Listener listener) throws InterruptedException {
+        CaseResult[] done = new CaseResult[cases.size()];
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int w = 0; w < Math.min(parallelism, cases.size()); w++) {
+                workers.add(executor.submit(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < cases.size()) {
+                        CaseResult r = runCase(owner, binary, binaryHash, i, cases.get(i), compare, timeoutMillis);
+                        done[i] = r;
+                        listener.caseFinished(r);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : workers) f.get();
+        } catch (ExecutionException e) {
+            // runCase turns everything but interruption into a verdict
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new InterruptedException("judge worker interrupted");
+        } finally {
+            for (Future<?> f : workers) f.cancel(true);
+        }
+        return done;
+    }
+
+    // binaryHash is null when the result cache is off or bypassed for this batch.
+    private CaseResult runCase(String owner, Path binary, String binaryHash, int index, TestCase tc, Compare compare,
+                               long timeoutMillis) throws InterruptedException {
+        String name = tc.name() != null ? tc.name() : String.valueOf(index + 1);
+        String input = tc.input() == null ? "" : tc.input();
+        String key = binaryHash == null ? null : ResultCache.key(binaryHash, input, profile);
+        ResultCache.Entry recorded = key == null ? null : results.get(key);
+        // A recorded run is only replayed if it also finished within this batch's timeout.
+        if (recorded != null && recorded.millis() <= timeoutMillis) {
+            Execution replay = new Execution(recorded.stdout(), recorded.stderr(), recorded.exitCode(), "exited", null,
+                    recorded.millis());
+            return verdict(index, name, tc, compare, timeoutMillis, replay, true);
+        }
+        try {
+            JobScheduler.Permit permit = scheduler.acquire(JobScheduler.Lane.EXECUTE, owner, null);
+            try (WorkspaceManager.Workspace ws = workspaces.open(owner)) {
+                Execution run = execute(binary, ws.dir(), input, timeoutMillis);
+                metrics.run(PipelineMetrics.JUDGE, run.outcome(), TimeUnit.MILLISECONDS.toNanos(run.millis()));
+                if (run.violation() != null) metrics.limitKill(PipelineMetrics.JUDGE, run.violation());
+                // Timeouts and limit kills depend on load and are not recorded.
+                if (key != null && run.outcome().equals("exited")) {
+                    results.put(key, new ResultCache.Entry(run.stdout(), run.stderr(), run.exitCode(), run.millis()));
+                }
+                return verdict(index, name, tc, compare, timeoutMillis, run, false);
+            } finally {
+                permit.close();
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            return new CaseResult(index, name, Verdict.INTERNAL_ERROR, -1, 0, String.valueOf(e.getMessage()), false);
+        }
+    }
+
+    private CaseResult verdict(int index, String name, TestCase tc, Compare compare, long timeoutMillis,
+                               Execution run, boolean replayed) {
+        Verdict verdict;
+        String detail;
+        switch (run.outcome()) {
+            case "timeout" -> { verdict = Verdict.TIME_LIMIT; detail = "exceeded " + timeoutMillis + " ms"; }
+            case "output_limit" -> { verdict = Verdict.OUTPUT_LIMIT; detail = "printed more than " + maxOutputBytes + " bytes"; }
+            case "limit" -> { verdict = Verdict.RESOURCE_LIMIT; detail = run.violation().message(); }
+            default -> {
+                if (run.exitCode() != 0) {
+                    verdict = Verdict.RUNTIME_ERROR;
+                    detail = truncate(run.stderr());
+                } else if (matches(compare, run.stdout(), tc.expected() == null ? "" : tc.expected())) {
+                    verdict = Verdict.ACCEPTED;
+                    detail = "";
+                } else {
+                    verdict = Verdict.WRONG_ANSWER;
+                    detail = truncate(run.stderr());
+                }
+            }
+        }
+        return new CaseResult(index, name, verdict, run.exitCode(), run.millis(), detail, replayed);
+    }
+
+    /** {@code outcome} uses the run metric's names: exited, timeout, output_limit or limit. */
+    private record Execution(String stdout, String stderr, int exitCode, String outcome,
+                             ResourceLimits.Violation violation, long millis) {}
+
+    private Execution execute(Path binary, Path dir, String input, long timeoutMillis)
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        try (LauncherPool.Launch launch = launchers.start(LauncherPool.Kind.PIPE, profile, dir, binary.toString())) {
+            Process proc = launch.process();
+            AtomicBoolean capped = new AtomicBoolean();
+            Runnable cap = () -> {
+                capped.set(true);
+                Processes.killTree(proc);
+            };
+            Future<?> stdin = executor.submit(() -> {
+                try (OutputStream os = proc.getOutputStream()) {
+                    os.write(input.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ignored) {
+                    // the program exited or closed stdin without reading all of it
+                }
+            });
+            Future<byte[]> stdout = executor.submit(() -> capture(proc.getInputStream(), maxOutputBytes, cap));
+            Future<byte[]> stderr = executor.submit(() -> capture(proc.getErrorStream(), maxOutputBytes, cap));
+            try {
+                boolean exited = Processes.awaitExit(proc, timeoutMillis, TimeUnit.MILLISECONDS);
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                if (!exited) Processes.killTree(proc);
+                String out = new String(stdout.get(), StandardCharsets.UTF_8);
+                String err = new String(stderr.get(), StandardCharsets.UTF_8);
+                if (!exited) return new Execution(out, err, -1, "timeout", null, millis);
+                int exit = proc.exitValue();
+                if (capped.get()) return new Execution(out, err, exit, "output_limit", null, millis);
+                ResourceLimits.Violation violation = launch.sandbox().killedBy(exit);
+                return new Execution(out, err, exit, violation != null ? "limit" : "exited", violation, millis);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                Processes.killTree(proc);
+                stdin.cancel(true);
+            }
+        }
+    }
+
+    // Reads the whole stream, keeping at most `limit` bytes; `onLimit` runs once the limit is passed.
+    // Killing the process can close the pipe under a blocked read; what was read by then is kept.
+    private static byte[] capture(InputStream in, long limit, Runnable onLimit) throws IOException {
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (in) {
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                int room = (int) Math.min(n, limit - kept.size());
+                kept.write(buffer, 0, room);
+                if (room < n) {
+                    onLimit.run();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (!"Stream closed".equals(e.getMessage())) throw e;
+        }
+        return kept.toByteArray();
+    }
+
+    static boolean matches(Compare compare, String actual, String expected) {
+        if (compare == Compare.EXACT) return actual.equals(expected);
+        return Arrays.equals(tokens(actual), tokens(expected));
+    }
+
+    private static String[] tokens(String s) {
+        String t = s.strip();
+        return t.isEmpty() ? new String[0] : t.split("\\s+");
+    }
+
+    private static String truncate(String s) {
+        return s.length() <= DETAIL_CHARS ? s : s.substring(0, DETAIL_CHARS) + "...";
+    }
+}
@@ -0,0 +1,323 @@
+package org.utej.compilecloud;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-spawned launchers that exec a compiled binary on demand, so a run skips process creation and,
+ * for the terminal, PTY allocation. A launcher is a sandboxed sh that reads a directory and a binary
+ * path from its stdin and execs the binary there; the process handed out is then the program itself,
+ * with its resource limits already applied. Since exec replaces the launcher, each one serves a
+ * single run, and recycling means retiring idle launchers after max-idle-seconds for fresh ones.
+ * Every program leads its own process group (pipe runs through setsid, PTY runs as session
+ * leaders), and closing its {@link Launch} kills the group, children it left behind included.
+ *
+ * <p>There is one pool per (kind, limits profile), created on first use. Each keeps as many idle
+ * launchers as it had launches in the last demand window, within [min-idle, max-idle].
+ */
+@Component
+public class LauncherPool {
+
+    private static final Logger log = LoggerFactory.getLogger(LauncherPool.class);
+
+    public enum Kind { PIPE, PTY }
+
+    // sh reads pipes byte by byte, so anything written after the two lines stays on stdin for the program.
+    private static final String PIPE_LAUNCHER =
+            "IFS= read -r dir && IFS= read -r bin && cd \"$dir\" && exec \"$bin\"";
+    // Echo is off while the two lines are read so they never show in the terminal; 'R' means ready.
+    private static final String PTY_LAUNCHER =
+            "stty -echo && printf R && IFS= read -r dir && IFS= read -r bin && stty echo && cd \"$dir\" && exec \"$bin\"";
+    private static final int PTY_READY = 'R';
+    private static final String SETSID = ResourceLimits.findOnPath("setsid");
+
+    /** A started program. Close it once the program has exited, to release its sandbox. */
+    public record Launch(Kind kind, String profile, Process process, ResourceLimits.Sandbox sandbox, boolean warm)
+            implements AutoCloseable {
+        public PtyProcess pty() {
+            return (PtyProcess) process;
+        }
+
+        @Override
+        public void close() {
+            Processes.killTree(process);
+            sandbox.close();
+        }
+    }
+
+    private record Worker(Process process, ResourceLimits.Sandbox sandbox, long spawnedNanos) {
+        void retire() {
+            Processes.killTree(process);
+            sandbox.close();
+        }
+    }
+
+    private static final class Pool {
+        final Kind kind;
+        final ResourceLimits.Profile profile;
+        final ConcurrentLinkedDeque<Worker> idle = new ConcurrentLinkedDeque<>();
+        final ConcurrentLinkedDeque<Long> launches = new ConcurrentLinkedDeque<>();
+        final AtomicInteger spawning = new AtomicInteger();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong spawned = new AtomicLong();
+        final AtomicLong retired = new AtomicLong();
+        final AtomicLong spawnFailures = new AtomicLong();
+        long warmRuns, warmNanos, coldRuns, coldNanos; // guarded by this
+
+        Pool(Kind kind, ResourceLimits.Profile profile) {
+            this.kind = kind;
+            this.profile = profile;
+        }
+    }
+
+    private final ResourceLimits limits;
+    private final PipelineMetrics metrics;
+    private final boolean enabled;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long demandWindowNanos;
+    private final long maxIdleNanos;
+    private final Map<String, String> environment = Map.copyOf(System.getenv());
+    private final ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<>();
+    // PTY readiness reads are native calls, so spawning gets a platform thread; one is plenty.
+    private final ExecutorService spawner = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("launcher-spawn").daemon(true).factory());
+    private volatile boolean closed;
+
+    public LauncherPool(ResourceLimits limits, PipelineMetrics metrics,
+                        @Value("${compilecloud.launcher.enabled:true}") boolean enabled,
+                        @Value("${compilecloud.launcher.min-idle:1}") int minIdle,
+                        @Value("${compilecloud.launcher.max-idle:4}") int maxIdle,
+                        @Value("${compilecloud.launcher.demand-window-ms:10000}") long demandWindowMs,
+                        @Value("${compilecloud.launcher.max-idle-seconds:300}") long maxIdleSeconds) {
+        this.limits = limits;
+        this.metrics = metrics;
+        this.enabled = enabled && !System.getProperty("os.name").toLowerCase().contains("win");
+        this.minIdle = minIdle;
+        this.maxIdle = Math.max(minIdle, maxIdle);
+        this.demandWindowNanos = TimeUnit.MILLISECONDS.toNanos(demandWindowMs);
+        this.maxIdleNanos = TimeUnit.SECONDS.toNanos(maxIdleSeconds);
+    }
+
+    /**
+     * Runs {@code binary} in {@code dir} under {@code profile}: on an idle launcher if there is one,
+     * otherwise on a freshly spawned process.
+     */
+    public Launch start(Kind kind, ResourceLimits.Profile profile, Path dir, String binary) throws IOException {
+        Pool pool = pool(kind, profile);
+        pool.launches.addLast(System.nanoTime());
+        if (enabled) {
+            Worker w;
+            while ((w = pool.idle.pollFirst()) != null) {
+                if (!w.process().isAlive()) {
+                    retire(pool, w);
+                    continue;
+                }
+                try {
+                    OutputStream in = w.process().getOutputStream();
+                    in.write((dir + "\n" + binary + "\n").getBytes(StandardCharsets.UTF_8));
+                    in.flush();
+                } catch (IOException e) {
+                    retire(pool, w);
+                    continue;
+                }
+                pool.hits.incrementAndGet();
+                refill(pool);
+                return new Launch(kind, profile.name(), w.process(), w.sandbox(), true);
+            }
+            pool.misses.incrementAndGet();
+            refill(pool);
+        }
+        return cold(kind, profile, dir, binary);
+    }
+
+    /** Records the time from {@link #start} to the program's first output byte. */
+    public void firstOutput(Launch launch, long nanos) {
+        Pool pool = pools.get(key(launch.kind(), launch.profile()));
+        if (pool != null) {
+            synchronized (pool) {
+                if (launch.warm()) {
+                    pool.warmRuns++;
+                    pool.warmNanos += nanos;
+                } else {
+                    pool.coldRuns++;
+                    pool.coldNanos += nanos;
+                }
+            }
+        }
+        metrics.firstOutput(launch.kind() == Kind.PTY ? PipelineMetrics.PTY : PipelineMetrics.WS, launch.warm(), nanos);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        Map<String, Object> byPool = new TreeMap<>();
+        pools.forEach((key, pool) -> {
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("idle", pool.idle.size());
+            p.put("target", target(pool));
+            p.put("hits", pool.hits.get());
+            p.put("misses", pool.misses.get());
+            p.put("spawned", pool.spawned.get());
+            p.put("retired", pool.retired.get());
+            p.put("spawnFailures", pool.spawnFailures.get());
+            synchronized (pool) {
+                p.put("warmRuns", pool.warmRuns);
+                p.put("avgWarmFirstOutputMicros", pool.warmRuns == 0 ? 0 : pool.warmNanos / pool.warmRuns / 1000);
+                p.put("coldRuns", pool.coldRuns);
+                p.put("avgColdFirstOutputMicros", pool.coldRuns == 0 ? 0 : pool.coldNanos / pool.coldRuns / 1000);
+            }
+            byPool.put(key, p);
+        });
+        m.put("pools", byPool);
+        return m;
+    }
+
+    /** Retires launchers that sat idle too long or exceed current demand, then tops pools back up. */
+    @Scheduled(fixedDelayString = "${compilecloud.launcher.maintain-interval-ms:5000}")
+    public void maintain() {
+        long now = System.nanoTime();
+        for (Pool pool : pools.values()) {
+            int excess = pool.idle.size() - target(pool);
+            Worker w;
+            while ((w = pool.idle.peekFirst()) != null
+                    && (excess > 0 || now - w.spawnedNanos() > maxIdleNanos || !w.process().isAlive())) {
+                if (!pool.idle.remove(w)) continue; // taken meanwhile
+                retire(pool, w);
+                excess--;
+            }
+            refill(pool);
+        }
+    }
+
+    /** Spawns {@code count} launchers synchronously; for benchmarks and tests. */
+    void prewarm(Kind kind, ResourceLimits.Profile profile, int count) throws IOException {
+        Pool pool = pool(kind, profile);
+        for (int i = 0; i < count; i++) spawn(pool);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        spawner.shutdownNow();
+        for (Pool pool : pools.values()) {
+            Worker w;
+            while ((w = pool.idle.pollFirst()) != null) retire(pool, w);
+        }
+    }
+
+    private Pool pool(Kind kind, ResourceLimits.Profile profile) {
+        return pools.computeIfAbsent(key(kind, profile.name()), k -> new Pool(kind, profile));
+    }
+
+    private static String key(Kind kind, String profile) {
+        return kind.name().toLowerCase() + "/" + profile;
+    }
+
+    private int target(Pool pool) {
+        long cutoff = System.nanoTime() - demandWindowNanos;
+        Long t;
+        while ((t = pool.launches.peekFirst()) != null && t - cutoff < 0) pool.launches.pollFirst();
+        return Math.max(minIdle, Math.min(maxIdle, pool.launches.size()));
+    }
+
+    private void refill(Pool pool) {
+        if (!enabled || closed) return;
+        int target = target(pool);
+        while (pool.idle.size() + pool.spawning.get() < target) {
+            pool.spawning.incrementAndGet();
+            try {
+                spawner.execute(() -> {
+                    try {
+                        spawn(pool);
+                    } catch (IOException e) {
+                        String key = key(pool.kind, pool.profile.name());
+                        pool.spawnFailures.incrementAndGet();
+                        metrics.launcherSpawnFailed(key);
+                        log.warn("Launcher spawn failed for {}: {}", key, e.getMessage());
+                    } finally {
+                        pool.spawning.decrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pool.spawning.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void spawn(Pool pool) throws IOException {
+        ResourceLimits.Sandbox sandbox = limits.sandbox(pool.profile,
+                ownGroup(pool.kind, List.of("/bin/sh", "-c", pool.kind == Kind.PTY ? PTY_LAUNCHER : PIPE_LAUNCHER)));
+        Process process;
+        try {
+            process = pool.kind == Kind.PTY ? pty(sandbox.command(), null) : new ProcessBuilder(sandbox.command()).start();
+        } catch (IOException e) {
+            sandbox.close();
+            throw e;
+        }
+        Worker w = new Worker(process, sandbox, System.nanoTime());
+        if (pool.kind == Kind.PTY && process.getInputStream().read() != PTY_READY) {
+            retire(pool, w);
+            throw new IOException("PTY launcher did not start");
+        }
+        pool.spawned.incrementAndGet();
+        if (closed) {
+            retire(pool, w);
+            return;
+        }
+        pool.idle.addLast(w);
+    }
+
+    private Launch cold(Kind kind, ResourceLimits.Profile profile, Path dir, String binary) throws IOException {
+        ResourceLimits.Sandbox sandbox = limits.sandbox(profile, ownGroup(kind, List.of(binary)));
+        try {
+            Process process = kind == Kind.PTY
+                    ? pty(sandbox.command(), dir)
+                    : new ProcessBuilder(sandbox.command()).directory(dir.toFile()).start();
+            return new Launch(kind, profile.name(), process, sandbox, false);
+        } catch (IOException e) {
+            sandbox.close();
+            throw e;
+        }
+    }
+
+    // setsid execs in place (a JVM child never leads a group), so the process started keeps its pid as the group id.
+    private static List<String> ownGroup(Kind kind, List<String> command) {
+        if (kind == Kind.PTY || SETSID == null) return command;
+        List<String> grouped = new ArrayList<>(command.size() + 1);
+        grouped.add(SETSID);
+        grouped.addAll(command);
+        return grouped;
+    }
+
+    private PtyProcess pty(List<String> command, Path dir) throws IOException {
+        PtyProcessBuilder builder = new PtyProcessBuilder(command.toArray(String[]::new))
+                .setEnvironment(environment)
+                .setInitialColumns(80)
+                .setInitialRows(24);
+        if (dir != null) builder.setDirectory(dir.toString());
+        return builder.start();
+    }
+
+    private static void retire(Pool pool, Worker w) {
+        w.retire();
+        pool.retired.incrementAndGet();
+    }
+}
@@ -0,0 +1,153 @@
+package org.utej.compilecloud;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Scrollback for one connection: the last records sent to the client, numbered in send order,
+ * so a client that reconnects can ask for everything from the first number it did not see.
+ * Records live in a fixed-size ring on the heap; when that fills up and {@code spillBytes} is
+ * larger, the ring moves once into a memory-mapped file of that size. Oldest records are
+ * overwritten after that. A record bigger than the whole ring keeps only its tail. Each record's
+ * header carries its length, so the ring is also the index: memory stays fixed however small and
+ * numerous the records are, and a replay walks the headers to the first record it needs.
+ *
+ * <p>Not thread-safe; callers serialise appends and replays.
+ */
+final class OutputLog implements AutoCloseable {
+
+    /** Receives replayed records. */
+    interface Sink {
+        void record(byte type, byte[] payload) throws IOException;
+    }
+
+    private final int memoryBytes;
+    private final long spillBytes;
+    private final Path spillDir;
+
+    private ByteBuffer ring;        // allocated on first append
+    private int capacity;
+    private Path spillFile;
+    private boolean spillTried;
+    private long head;              // absolute byte position of the oldest record
+    private long tail;              // absolute byte position of the next record
+    private long firstSeq;          // number of the oldest record
+    private long count;             // records retained
+
+    OutputLog(int memoryBytes, long spillBytes, Path spillDir) {
+        this.memoryBytes = memoryBytes;
+        this.spillBytes = Math.min(spillBytes, Integer.MAX_VALUE);
+        this.spillDir = spillDir;
+    }
+
+    /** Number the next appended record gets. */
+    long nextSeq() {
+        return firstSeq + count;
+    }
+
+    long firstSeq() {
+        return firstSeq;
+    }
+
+    void append(byte type, byte[] payload) {
+        if (ring == null) {
+            ring = ByteBuffer.allocate(memoryBytes);
+            capacity = memoryBytes;
+        }
+        if (tail - head + WireProtocol.HEADER_BYTES + payload.length > capacity && !spillTried && spillBytes > capacity) {
+            spill();
+        }
+        int keep = Math.min(payload.length, capacity - WireProtocol.HEADER_BYTES);
+        int size = WireProtocol.HEADER_BYTES + keep;
+        while (tail - head + size > capacity) {
+            head += recordBytes(head);
+            firstSeq++;
+            count--;
+        }
+        byte[] header = { type, (byte) (keep >>> 24), (byte) (keep >>> 16), (byte) (keep >>> 8), (byte) keep };
+        count++;
+        write(tail, header, 0, header.length);
+        write(tail + header.length, payload, payload.length - keep, keep);
+        tail += size;
+    }
+
+    /**
+     * Sends every retained record numbered {@code fromSeq} or later to {@code sink} and returns the
+     * number of the first one sent, which is higher than {@code fromSeq} if older records were overwritten.
+     */
+    long replay(long fromSeq, Sink sink) throws IOException {
+        long seq = Math.max(fromSeq, firstSeq);
+        long first = seq;
+        if (seq >= nextSeq()) return first;
+        long pos = head;
+        for (long s = firstSeq; s < seq; s++) pos += recordBytes(pos);
+        while (pos < tail) {
+            byte[] header = new byte[WireProtocol.HEADER_BYTES];
+            read(pos, header, 0, header.length);
+            int len = ((header[1] & 0xff) << 24) | ((header[2] & 0xff) << 16) | ((header[3] & 0xff) << 8) | (header[4] & 0xff);
+            byte[] payload = new byte[len];
+            read(pos + header.length, payload, 0, len);
+            sink.record(header[0], payload);
+            pos += header.length + len;
+        }
+        return first;
+    }
+
+    @Override
+    public void close() {
+        ring = null;
+        count = 0;
+        if (spillFile != null) {
+            try { Files.deleteIfExists(spillFile); } catch (IOException ignored) {}
+        }
+    }
+
+    // Moves the retained records into a mapped file; on failure the heap ring simply keeps overwriting.
+    private void spill() {
+        spillTried = true;
+        Path file = null;
+        try {
+            file = Files.createTempFile(spillDir, "scrollback-", ".ring");
+            ByteBuffer mapped;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapped = ch.map(FileChannel.MapMode.READ_WRITE, 0, spillBytes);
+            }
+            byte[] retained = new byte[(int) (tail - head)];
+            read(head, retained, 0, retained.length);
+            spillFile = file;
+            ring = mapped;
+            capacity = (int) spillBytes;
+            write(head, retained, 0, retained.length);
+        } catch (IOException | UnsupportedOperationException e) {
+            if (file != null) {
+                try { Files.deleteIfExists(file); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Header plus payload of the record starting at absolute position pos.
+    private int recordBytes(long pos) {
+        byte[] header = new byte[WireProtocol.HEADER_BYTES];
+        read(pos, header, 0, header.length);
+        int len = ((header[1] & 0xff) << 24) | ((header[2] & 0xff) << 16) | ((header[3] & 0xff) << 8) | (header[4] & 0xff);
+        return header.length + len;
+    }
+
+    private void write(long pos, byte[] src, int off, int len) {
+        int at = (int) (pos % capacity);
+        int first = Math.min(len, capacity - at);
+        ring.put(at, src, off, first);
+        if (first < len) ring.put(0, src, off + first, len - first);
+    }
+
+    private void read(long pos, byte[] dst, int off, int len) {
+        int at = (int) (pos % capacity);
+        int first = Math.min(len, capacity - at);
+        ring.get(at, dst, off, first);
+        if (first < len) ring.get(0, dst, off + first, len - first);
+    }
+}
@@ -0,0 +1,261 @@
+package org.utej.compilecloud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Precompiled headers for common sets of system headers.
+ * A .gch is only valid for the compiler and flags it was built with, so one is built per
+ * (compiler version, flags, header set) under a directory named by a hash of all three; a compiler
+ * upgrade therefore simply misses and the stale directories are removed by {@link #warm}.
+ *
+ * <p>A source qualifies when its leading block of {@code #include <...>} lines covers a configured
+ * set: force-including those headers first then changes nothing, since nothing precedes them.
+ */
+@Component
+public class PchManager {
+
+    private static final Logger log = LoggerFactory.getLogger(PchManager.class);
+
+    private static final Pattern SYSTEM_INCLUDE = Pattern.compile("^#\\s*include\\s*<([^>]+)>\\s*(//.*)?$");
+    private static final String HEADER = "pch.h";
+    private static final String PROBE_OBJECT = "probe.o";
+    private static final String PROBE_BODY = "int main(void) { return 0; }\n";
+    private static final long BUILD_TIMEOUT_SECONDS = 60;
+    private static final String STAGING = "staging-";
+
+    /** A built header set, with the compile time it saved on a probe source. */
+    private record Entry(Path header, long probeMillisWithout, long probeMillisWith) {}
+
+    private final boolean enabled;
+    private final Path root;
+    private final List<List<String>> sets;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+    private final Object statsLock = new Object();
+    private long compilesWith, compilesWithout, millisWith, millisWithout;
+
+    public PchManager(@Value("${compilecloud.pch.enabled:true}") boolean enabled,
+                      @Value("${compilecloud.pch.dir:compile_cache/pch}") String dir,
+                      @Value("${compilecloud.pch.sets:stdio.h,stdlib.h,string.h,math.h;stdio.h,stdlib.h,string.h;stdio.h,stdlib.h;stdio.h}") String sets,
+                      @Qualifier("ioExecutor") ExecutorService executor) throws IOException {
+        this.enabled = enabled;
+        this.root = Paths.get(System.getProperty("user.dir")).resolve(dir).toAbsolutePath();
+        this.executor = executor;
+        List<List<String>> parsed = new ArrayList<>();
+        for (String set : sets.split(";")) {
+            List<String> headers = Arrays.stream(set.split(",")).map(String::trim).filter(h -> !h.isEmpty()).toList();
+            if (!headers.isEmpty()) parsed.add(headers);
+        }
+        parsed.sort(Comparator.comparingInt((List<String> s) -> s.size()).reversed()); // largest match wins
+        this.sets = List.copyOf(parsed);
+        if (enabled) Files.createDirectories(root);
+    }
+
+    /**
+     * Builds every configured set for the given gcc-compatible toolchains in the background and
+     * deletes PCH directories left over from other compiler versions or flag sets.
+     */
+    public void warm(Map<CompileService.Toolchain, String> toolchainVersions) {
+        if (!enabled) return;
+        Map<String, Runnable> builds = new LinkedHashMap<>();
+        toolchainVersions.forEach((toolchain, version) -> {
+            if (!toolchain.gccCompatible()) return;
+            for (List<String> set : sets) {
+                String id = id(toolchain, version, set);
+                builds.put(id, () -> entry(id, toolchain, set));
+            }
+        });
+        // Sweep before starting the builds, which stage under root too.
+        sweep(builds.keySet());
+        builds.values().forEach(Runnable::run);
+    }
+
+    /** Deletes directories under root not in {@code keep}; staging directories only once they are abandoned. */
+    private void sweep(Set<String> keep) {
+        long abandoned = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(BUILD_TIMEOUT_SECONDS) * 2;
+        try (Stream<Path> dirs = Files.list(root)) {
+            for (Path d : dirs.toList()) {
+                String name = d.getFileName().toString();
+                if (keep.contains(name)) continue;
+                if (name.startsWith(STAGING) && Files.getLastModifiedTime(d).toMillis() > abandoned) continue;
+                WorkspaceManager.deleteRecursively(d);
+            }
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Extra compiler arguments that force-include a ready PCH matching {@code source}, or an empty
+     * list. Never waits for a PCH that is still being built.
+     */
+    public List<String> includeFlags(CompileService.Toolchain toolchain, String version, String source) {
+        if (!enabled || !toolchain.gccCompatible()) return List.of();
+        Set<String> included = leadingSystemIncludes(source);
+        for (List<String> set : sets) {
+            if (!included.containsAll(set)) continue;
+            CompletableFuture<Entry> f = entry(id(toolchain, version, set), toolchain, set);
+            Entry e = f.isDone() && !f.isCompletedExceptionally() ? f.join() : null;
+            return e == null ? List.of() : List.of("-include", e.header().toString());
+        }
+        return List.of();
+    }
+
+    /** Records a real (uncached) compile so the savings show up in {@link #stats()}. */
+    public void recordCompile(boolean usedPch, long millis) {
+        synchronized (statsLock) {
+            if (usedPch) {
+                compilesWith++;
+                millisWith += millis;
+            } else {
+                compilesWithout++;
+                millisWithout += millis;
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        synchronized (statsLock) {
+            m.put("compilesWithPch", compilesWith);
+            m.put("avgMillisWithPch", compilesWith == 0 ? 0 : millisWith / compilesWith);
+            m.put("compilesWithoutPch", compilesWithout);
+            m.put("avgMillisWithoutPch", compilesWithout == 0 ? 0 : millisWithout / compilesWithout);
+        }
+        List<Map<String, Object>> built = new ArrayList<>();
+        entries.forEach((id, f) -> {
+            if (!f.isDone() || f.isCompletedExceptionally()) return;
+            Entry e = f.join();
+            built.add(Map.of(
+                    "id", id,
+                    "probeMillisWithout", e.probeMillisWithout(),
+                    "probeMillisWith", e.probeMillisWith(),
+                    "probeMillisSaved", e.probeMillisWithout() - e.probeMillisWith()));
+        });
+        m.put("built", built);
+        return m;
+    }
+
+    static Set<String> leadingSystemIncludes(String source) {
+        Set<String> headers = new HashSet<>();
+        boolean inComment = false;
+        for (String raw : source.lines().toList()) {
+            String line = raw.strip();
+            if (inComment || line.startsWith("/*")) {
+                if (line.contains("*/") && !line.endsWith("*/")) break; // code after the comment
+                inComment = !line.contains("*/");
+                continue;
+            }
+            if (line.isEmpty() || line.startsWith("//")) continue;
+            Matcher m = SYSTEM_INCLUDE.matcher(line);
+            if (!m.matches()) break;
+            headers.add(m.group(1).strip());
+        }
+        return headers;
+    }
+
+    private CompletableFuture<Entry> entry(String id, CompileService.Toolchain toolchain, List<String> set) {
+        return entries.computeIfAbsent(id, k -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return build(root.resolve(k), toolchain, set);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    private Entry build(Path dir, CompileService.Toolchain toolchain, List<String> set)
+            throws IOException, InterruptedException {
+        Path header = dir.resolve(HEADER);
+        Path gch = dir.resolve(HEADER + ".gch");
+        if (!Files.exists(gch)) {
+            // Build beside the final directory, then rename, so a half-written .gch is never used.
+            Path staging = Files.createTempDirectory(root, STAGING);
+            try {
+                StringBuilder text = new StringBuilder();
+                for (String h : set) text.append("#include <").append(h).append(">\n");
+                Files.writeString(staging.resolve(HEADER), text);
+
+                List<String> cmd = new ArrayList<>();
+                cmd.add(toolchain.compiler());
+                cmd.addAll(toolchain.flags());
+                cmd.addAll(List.of("-x", "c-header", HEADER, "-o", HEADER + ".gch"));
+                if (run(cmd, staging, new byte[0]) != 0) throw new IOException("PCH build failed for " + set);
+                try {
+                    Files.move(staging, dir, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                    // another instance got there first
+                }
+            } finally {
+                WorkspaceManager.deleteRecursively(staging);
+            }
+        }
+
+        // Probe: the same trivial program compiled (without linking) with and without the PCH.
+        StringBuilder probe = new StringBuilder();
+        for (String h : set) probe.append("#include <").append(h).append(">\n");
+        probe.append(PROBE_BODY);
+        byte[] source = probe.toString().getBytes(StandardCharsets.UTF_8);
+        long without = Long.MAX_VALUE, with = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            without = Math.min(without, timeProbe(toolchain, List.of(), dir, source));
+            with = Math.min(with, timeProbe(toolchain, List.of("-include", header.toString()), dir, source));
+        }
+        log.debug("PCH {} {}: probe {} ms -> {} ms", String.join(" ", toolchain.keyParts()), set, without, with);
+        return new Entry(header, without, with);
+    }
+
+    private long timeProbe(CompileService.Toolchain toolchain, List<String> extra, Path dir, byte[] source)
+            throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(toolchain.compiler());
+        cmd.addAll(extra);
+        cmd.addAll(List.of("-x", "c", "-"));
+        cmd.addAll(toolchain.flags());
+        cmd.addAll(List.of("-c", "-o", PROBE_OBJECT));
+        long started = System.nanoTime();
+        run(cmd, dir, source);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        Files.deleteIfExists(dir.resolve(PROBE_OBJECT));
+        return millis;
+    }
+
+    private static int run(List<String> cmd, Path dir, byte[] stdin) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(dir.toFile());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        Process proc = pb.start();
+        try (OutputStream os = proc.getOutputStream()) {
+            os.write(stdin);
+        } catch (IOException ignored) {
+            // compiler exited early; the exit code says why
+        }
+        if (!Processes.awaitExit(proc, BUILD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            proc.destroyForcibly();
+            return -1;
+        }
+        return proc.exitValue();
+    }
+
+    private static String id(CompileService.Toolchain toolchain, String version, List<String> set) {
+        return CompileCache.key(String.join(",", set).getBytes(StandardCharsets.UTF_8), toolchain.keyParts(), version)
+                .substring(0, 16);
+    }
+}
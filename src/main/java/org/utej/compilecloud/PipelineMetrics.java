@@ -0,0 +1,105 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Meters for the compile and run pipeline, scraped at /actuator/prometheus.
+ * Timers publish percentile histograms; byte and frame counters are totals, so take rate() of them.
+ * {@code handler} tags tell the RUN:/OUTPUT: socket ("ws") from the PTY terminal ("pty") and batch
+ * judge runs ("judge").
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String WS = "ws";
+    public static final String PTY = "pty";
+    public static final String JUDGE = "judge";
+
+    /** Bytes and frames sent to clients by one handler. */
+    public record OutputMeter(Counter bytes, Counter frames) {
+        public void frame(long size) {
+            frames.increment();
+            bytes.increment(size);
+        }
+    }
+
+    private final MeterRegistry registry;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void compiled(CompileService.Result r) {
+        String outcome = r.timedOut() ? "timeout" : r.success() ? "ok" : "error";
+        timer("compilecloud.compile", "Compiler wall time; cache hits count as zero",
+                "tier", r.tier(), "outcome", outcome, "cached", String.valueOf(r.cached()))
+                .record(Duration.ofMillis(r.millis()));
+        if (r.timedOut()) timeout("compile");
+        else if (!r.success()) counter("compilecloud.compile.errors", "Compiles rejected by the compiler").increment();
+    }
+
+    public void queueWait(JobScheduler.Lane lane, long nanos) {
+        timer("compilecloud.queue.wait", "Time spent waiting for a scheduler slot", "lane", lane.name().toLowerCase())
+                .record(Duration.ofNanos(nanos));
+    }
+
+    /** {@code warm} runs were started on a pre-spawned launcher, cold ones on a new process. */
+    public void firstOutput(String handler, boolean warm, long nanos) {
+        timer("compilecloud.run.first.output", "From launch request to the program's first output byte",
+                "handler", handler, "launch", warm ? "warm" : "cold")
+                .record(Duration.ofNanos(nanos));
+    }
+
+    public void run(String handler, String outcome, long nanos) {
+        timer("compilecloud.run", "Program run time", "handler", handler, "outcome", outcome)
+                .record(Duration.ofNanos(nanos));
+        if (outcome.equals("timeout")) timeout("run");
+    }
+
+    public void limitKill(String handler, ResourceLimits.Violation violation) {
+        Counter.builder("compilecloud.run.limit.kills").description("Programs stopped by a resource limit")
+                .tag("handler", handler).tag("limit", violation.kind()).register(registry).increment();
+    }
+
+    public void launcherSpawnFailed(String pool) {
+        Counter.builder("compilecloud.launcher.spawn.failures").description("Launchers that failed to start")
+                .tag("pool", pool).register(registry).increment();
+    }
+
+    public void ctrlC() {
+        counter("compilecloud.run.ctrlc", "Programs killed by Ctrl+C").increment();
+    }
+
+    public OutputMeter output(String handler) {
+        return new OutputMeter(
+                Counter.builder("compilecloud.output.bytes").description("Program output bytes sent to clients")
+                        .baseUnit("bytes").tag("handler", handler).register(registry),
+                Counter.builder("compilecloud.output.frames").description("WebSocket frames of program output")
+                        .tag("handler", handler).register(registry));
+    }
+
+    public void gauge(String name, String description, Supplier<Number> value, String... tags) {
+        Gauge.builder(name, value).description(description).tags(tags).register(registry);
+    }
+
+    private void timeout(String stage) {
+        Counter.builder("compilecloud.timeouts").description("Compiles and runs killed for exceeding their time limit")
+                .tag("stage", stage).register(registry).increment();
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name).description(description).tags(tags)
+                .publishPercentileHistogram().register(registry);
+    }
+
+    private Counter counter(String name, String description) {
+        return Counter.builder(name).description(description).register(registry);
+    }
+}
@@ -0,0 +1,74 @@
+package org.utej.compilecloud;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+final class Processes {
+
+    private static final Path PROC = Paths.get("/proc");
+
+    private Processes() {}
+
+    /**
+     * Like {@link Process#waitFor(long, TimeUnit)}, but parks on the process's exit future
+     * instead of {@code Object.wait}, so a virtual thread does not pin its carrier while waiting.
+     */
+    static boolean awaitExit(Process process, long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            process.onExit().get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return !process.isAlive();
+        }
+    }
+
+    /**
+     * Kills a process and everything it forked. Children are collected first: once the parent
+     * dies they are re-parented and no longer show up as its descendants. If the process led a
+     * process group, the rest of the group is killed too, which also catches children that were
+     * orphaned or double-forked before the call, even after the process itself has exited.
+     */
+    static void killTree(Process process) {
+        long pid = -1;
+        try {
+            pid = process.pid();
+            process.toHandle().descendants().forEach(ProcessHandle::destroyForcibly);
+        } catch (UnsupportedOperationException ignored) {
+            // Process implementation without a handle (some PTY backends)
+        }
+        process.destroyForcibly();
+        if (pid > 0) killGroup(pid);
+    }
+
+    // The kernel does not reuse a pid while it names a live group, so members of group `pgid` are ours.
+    private static void killGroup(long pgid) {
+        if (!Files.isDirectory(PROC)) return;
+        try (DirectoryStream<Path> pids = Files.newDirectoryStream(PROC, "[0-9]*")) {
+            for (Path dir : pids) {
+                long pid = Long.parseLong(dir.getFileName().toString());
+                if (pid != pgid && groupOf(dir) == pgid) ProcessHandle.of(pid).ifPresent(ProcessHandle::destroyForcibly);
+            }
+        } catch (IOException ignored) {
+            // /proc unreadable; descendants were still killed
+        }
+    }
+
+    // Field 5 of /proc/<pid>/stat; the command name before it is parenthesised and may hold spaces.
+    private static long groupOf(Path procDir) {
+        try {
+            String stat = Files.readString(procDir.resolve("stat"));
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[2]);
+        } catch (IOException | RuntimeException e) {
+            return -1; // exited meanwhile
+        }
+    }
+}
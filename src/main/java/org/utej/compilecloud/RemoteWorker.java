@@ -0,0 +1,231 @@
+package org.utej.compilecloud;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A worker process at host:port ({@link WorkerServer} on the other end). Each run has its own
+ * connection, read on the I/O executor straight into the run's sink, so a slow browser slows the
+ * remote program through TCP backpressure just as it does a local one. Uploaded input files are
+ * sent with {@link FileChannel#transferTo} into the socket.
+ *
+ * <p>Starts unhealthy; {@link WorkerPool} pings it with {@link #check()}.
+ */
+final class RemoteWorker implements Worker {
+
+    private final String id;
+    private final String host;
+    private final int port;
+    private final ExecutorService executor;
+    private final int timeoutMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int reportedActive;
+    private volatile int reportedSlots = 1;
+    private volatile boolean healthy;
+
+    /** {@code hostAndPort} is "host:port". */
+    RemoteWorker(String hostAndPort, ExecutorService executor, int timeoutMillis) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("Worker address must be host:port: " + hostAndPort);
+        this.id = hostAndPort;
+        this.host = hostAndPort.substring(0, colon);
+        this.port = Integer.parseInt(hostAndPort.substring(colon + 1));
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    // Runs this front end started since the last ping are not in the reported count yet.
+    @Override
+    public int active() {
+        return Math.max(inFlight.get(), reportedActive);
+    }
+
+    @Override
+    public int slots() {
+        return reportedSlots;
+    }
+
+    @Override
+    public boolean healthy() {
+        return healthy;
+    }
+
+    /** Pings the worker and records its load. False, and unhealthy, if it does not answer in time. */
+    boolean check() {
+        try (SocketChannel channel = connect()) {
+            channel.socket().setSoTimeout(timeoutMillis);
+            WorkerProtocol.write(channel.socket().getOutputStream(), WorkerProtocol.PING, new byte[0]);
+            WorkerProtocol.Frame pong = WorkerProtocol.read(new DataInputStream(channel.socket().getInputStream()));
+            if (pong == null || pong.type() != WorkerProtocol.PONG) throw new IOException("No PONG from " + id);
+            String[] counts = pong.text().trim().split(" ");
+            reportedActive = Integer.parseInt(counts[0]);
+            reportedSlots = Math.max(1, Integer.parseInt(counts[1]));
+            healthy = true;
+        } catch (IOException | RuntimeException e) {
+            healthy = false;
+        }
+        return healthy;
+    }
+
+    @Override
+    public Run start(String owner, String source, Sink sink) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = connect();
+        } catch (IOException e) {
+            healthy = false;
+            throw e;
+        }
+        RemoteRun run = new RemoteRun(channel, sink);
+        try {
+            run.send(WorkerProtocol.RUN, (owner + "\n" + source).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            run.close();
+            healthy = false;
+            throw e;
+        }
+        inFlight.incrementAndGet();
+        executor.submit(run::read);
+        return run;
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(new InetSocketAddress(host, port), timeoutMillis);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private final class RemoteRun implements Run {
+        final SocketChannel channel;
+        final Sink out;
+        final OutputStream socketOut;
+        final ReentrantLock writeLock = new ReentrantLock();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile boolean cancelled;
+
+        RemoteRun(SocketChannel channel, Sink out) throws IOException {
+            this.channel = channel;
+            this.out = out;
+            this.socketOut = new BufferedOutputStream(channel.socket().getOutputStream());
+        }
+
+        @Override
+        public void input(byte[] data) {
+            trySend(WorkerProtocol.INPUT, data);
+        }
+
+        @Override
+        public void inputFile(Path file) {
+            writeLock.lock();
+            try (FileChannel from = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = from.size();
+                if (size > WorkerProtocol.MAX_FRAME_BYTES) {
+                    out.send("OUTPUT: \r\n\u001b[31;1mError:\u001b[0m Input file is too large for a remote worker.\r\n");
+                    return;
+                }
+                WorkerProtocol.writeHeader(socketOut, WorkerProtocol.INPUT_FILE, (int) size);
+                socketOut.flush();
+                for (long pos = 0; pos < size; ) {
+                    long n = from.transferTo(pos, size - pos, channel);
+                    if (n <= 0) throw new EOFException("Input file shrank while sending");
+                    pos += n;
+                }
+            } catch (IOException e) {
+                // the connection is gone; read() reports it
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void eof() {
+            trySend(WorkerProtocol.EOF, new byte[0]);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            trySend(WorkerProtocol.CANCEL, new byte[0]);
+            close();
+        }
+
+        @Override
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        void send(byte type, byte[] payload) throws IOException {
+            writeLock.lock();
+            try {
+                WorkerProtocol.write(socketOut, type, payload);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void trySend(byte type, byte[] payload) {
+            try {
+                send(type, payload);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void read() {
+            boolean finished = false;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+                for (WorkerProtocol.Frame frame; !finished && (frame = WorkerProtocol.read(in)) != null; ) {
+                    switch (frame.type()) {
+                        case WorkerProtocol.OUTPUT, WorkerProtocol.STDERR -> {
+                            if (!out.output(WorkerProtocol.prefixOf(frame.type()), frame.text())) cancel();
+                        }
+                        case WorkerProtocol.MESSAGE -> out.send(frame.text());
+                        case WorkerProtocol.DONE -> finished = true;
+                        default -> { }
+                    }
+                }
+            } catch (IOException e) {
+                // handled below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!finished && !cancelled) {
+                    healthy = false;
+                    out.send("ERROR: Lost the connection to worker " + id + " before the run finished.");
+                }
+                close();
+                inFlight.decrementAndGet();
+                done.complete(null);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) { }
+        }
+    }
+}
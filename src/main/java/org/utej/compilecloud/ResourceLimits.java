@@ -0,0 +1,207 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kernel-enforced limits for user programs on Linux.
+ * Commands are wrapped in prlimit (or, without it, a sh/ulimit launcher that cannot limit
+ * processes) so CPU time, address space, process count and file size are capped before the binary
+ * starts. If {@code cgroup-root} points at a delegated cgroup v2 directory, each run also gets its
+ * own child cgroup with memory.max and pids.max, which works for root too and lets a fork bomb be
+ * killed as a whole.
+ *
+ * <p>Limits come in named profiles, {@code compilecloud.limits.profiles.<name>.*}; unset values
+ * fall back to the "default" profile and then to the built-in defaults.
+ */
+@Component
+public class ResourceLimits {
+
+    // Exit codes of a process killed by a signal are 128 + signal number.
+    private static final int SIGKILL_EXIT = 128 + 9;
+    private static final int SIGSEGV_EXIT = 128 + 11;
+    private static final int SIGXCPU_EXIT = 128 + 24;
+    private static final int SIGXFSZ_EXIT = 128 + 25;
+
+    public record Profile(String name, long cpuSeconds, long addressSpaceBytes, long maxProcesses,
+                          long fileSizeBytes, long wallSeconds) {}
+
+    /** The limit a run ran into: a short {@code kind} for metrics and a message for the user. */
+    public record Violation(String kind, String message) {}
+
+    private final boolean enabled;
+    private final Environment env;
+    private final String prlimit;
+    private final Path cgroupRoot;
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    public ResourceLimits(Environment env,
+                          @Value("${compilecloud.limits.enabled:true}") boolean enabled,
+                          @Value("${compilecloud.limits.cgroup-root:}") String cgroupRoot) {
+        this.env = env;
+        boolean linux = System.getProperty("os.name").toLowerCase().contains("linux");
+        this.enabled = enabled && linux;
+        this.prlimit = this.enabled ? findOnPath("prlimit") : null;
+        Path root = cgroupRoot.isBlank() ? null : Paths.get(cgroupRoot);
+        this.cgroupRoot = this.enabled && root != null && Files.isWritable(root.resolve("cgroup.procs")) ? root : null;
+    }
+
+    public Profile profile(String name) {
+        return profiles.computeIfAbsent(name, n -> new Profile(n,
+                limit(n, "cpu-seconds", 5),
+                limit(n, "address-space-bytes", 512L << 20),
+                limit(n, "max-processes", 64),
+                limit(n, "file-size-bytes", 16L << 20),
+                limit(n, "wall-seconds", 10)));
+    }
+
+    /** Wraps {@code command} for one run under {@code profile}. Close the sandbox once the run is over. */
+    public Sandbox sandbox(Profile profile, List<String> command) throws IOException {
+        if (!enabled) return new Sandbox(profile, command, null);
+
+        List<String> limited = new ArrayList<>();
+        if (prlimit != null) {
+            limited.add(prlimit);
+            // Soft CPU limit first, so the program gets SIGXCPU (attributable) rather than SIGKILL.
+            limited.add("--cpu=" + profile.cpuSeconds() + ":" + (profile.cpuSeconds() + 1));
+            limited.add("--as=" + profile.addressSpaceBytes());
+            limited.add("--nproc=" + profile.maxProcesses());
+            limited.add("--fsize=" + profile.fileSizeBytes());
+            limited.add("--");
+        }
+
+        Path cgroup = null;
+        StringBuilder script = new StringBuilder();
+        if (cgroupRoot != null) {
+            cgroup = Files.createDirectory(cgroupRoot.resolve("run-" + UUID.randomUUID()));
+            writeQuietly(cgroup.resolve("memory.max"), String.valueOf(profile.addressSpaceBytes()));
+            writeQuietly(cgroup.resolve("pids.max"), String.valueOf(profile.maxProcesses()));
+            script.append("echo $$ > '").append(cgroup.resolve("cgroup.procs")).append("' || exit 125; ");
+        }
+        if (prlimit == null) {
+            // One option per ulimit call keeps dash happy; -f counts 512-byte blocks.
+            script.append("ulimit -t ").append(profile.cpuSeconds()).append("; ")
+                  .append("ulimit -v ").append(profile.addressSpaceBytes() / 1024).append("; ")
+                  .append("ulimit -f ").append(Math.max(1, profile.fileSizeBytes() / 512)).append("; ");
+        }
+
+        List<String> wrapped = new ArrayList<>();
+        if (!script.isEmpty()) {
+            wrapped.addAll(List.of("/bin/sh", "-c", script + "exec \"$@\"", "sh"));
+        }
+        wrapped.addAll(limited);
+        wrapped.addAll(command);
+        return new Sandbox(profile, wrapped, cgroup);
+    }
+
+    public final class Sandbox implements AutoCloseable {
+        private final Profile profile;
+        private final List<String> command;
+        private final Path cgroup;
+
+        private Sandbox(Profile profile, List<String> command, Path cgroup) {
+            this.profile = profile;
+            this.command = command;
+            this.cgroup = cgroup;
+        }
+
+        public List<String> command() {
+            return command;
+        }
+
+        public Profile profile() {
+            return profile;
+        }
+
+        /**
+         * The limit that ended the run, or null if the exit does not look like one.
+         * Call only for runs the caller did not kill itself.
+         */
+        public Violation killedBy(int exitCode) {
+            if (!enabled) return null;
+            boolean hitMemoryMax = false;
+            if (cgroup != null) {
+                if (eventCount(cgroup.resolve("memory.events"), "oom_kill") > 0) {
+                    return new Violation("memory", "memory limit of " + (profile.addressSpaceBytes() >> 20) + " MB");
+                }
+                if (eventCount(cgroup.resolve("pids.events"), "max") > 0) {
+                    return new Violation("processes", "process limit of " + profile.maxProcesses());
+                }
+                hitMemoryMax = eventCount(cgroup.resolve("memory.events"), "max") > 0;
+            }
+            String cpu = "CPU time limit of " + profile.cpuSeconds() + " s";
+            return switch (exitCode) {
+                case SIGXCPU_EXIT -> new Violation("cpu", cpu);
+                case SIGXFSZ_EXIT -> new Violation("file_size", "file size limit of " + (profile.fileSizeBytes() >> 10) + " KB");
+                // Past the memory cap malloc fails and programs that don't check crash on the NULL, but
+                // most segfaults are plain bugs: only blame the limit when the cgroup saw it reached.
+                case SIGSEGV_EXIT -> hitMemoryMax ? new Violation("address_space",
+                        "segmentation fault, memory limit is " + (profile.addressSpaceBytes() >> 20) + " MB") : null;
+                // ulimit -t sets soft == hard, so the kernel goes straight to SIGKILL.
+                case SIGKILL_EXIT -> prlimit != null ? null : new Violation("cpu", cpu);
+                default -> null;
+            };
+        }
+
+        /** Kills everything left in the run's cgroup and removes it. */
+        @Override
+        public void close() {
+            if (cgroup == null) return;
+            writeQuietly(cgroup.resolve("cgroup.kill"), "1");
+            for (int i = 0; i < 50; i++) {
+                try {
+                    Files.deleteIfExists(cgroup);
+                    return;
+                } catch (IOException e) {
+                    // still has members while the kill lands
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private long limit(String profile, String key, long fallback) {
+        Long value = env.getProperty("compilecloud.limits.profiles." + profile + "." + key, Long.class);
+        if (value == null) value = env.getProperty("compilecloud.limits.profiles.default." + key, Long.class);
+        return value != null ? value : fallback;
+    }
+
+    private static long eventCount(Path events, String name) {
+        try {
+            for (String line : Files.readAllLines(events)) {
+                String[] kv = line.trim().split("\\s+");
+                if (kv.length == 2 && kv[0].equals(name)) return Long.parseLong(kv[1]);
+            }
+        } catch (IOException | NumberFormatException ignored) { }
+        return 0;
+    }
+
+    private static void writeQuietly(Path file, String value) {
+        try {
+            Files.writeString(file, value);
+        } catch (IOException ignored) { }
+    }
+
+    static String findOnPath(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) return null;
+        for (String dir : path.split(java.io.File.pathSeparator)) {
+            Path candidate = Paths.get(dir, name);
+            if (Files.isExecutable(candidate)) return candidate.toString();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,271 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Recorded results of deterministic runs, so the same binary fed the same stdin under the same
+ * limits is replayed instead of executed. Keys hash the binary, the input and every limit of the
+ * profile. Entries live in memory under a byte budget; the least recently used ones are spilled to
+ * {@code spill-dir} when it is set (with its own budget) and dropped otherwise.
+ *
+ * <p>Off unless {@code compilecloud.results.enabled}. Callers bypass it for programs flagged
+ * non-deterministic, and {@link #looksNondeterministic} catches the common sources of that.
+ */
+@Component
+public class ResultCache {
+
+    /** What a run printed and how it ended; only clean exits (any status) are worth recording. */
+    public record Entry(String stdout, String stderr, int exitCode, long millis) {
+        long bytes() {
+            return 2L * (stdout.length() + stderr.length()) + 64;
+        }
+    }
+
+    private static final String SPILL_SUFFIX = ".res";
+
+    // Calls that make a run depend on more than its binary and stdin.
+    private static final Pattern NONDETERMINISTIC = Pattern.compile(
+            "\\b(time|clock|clock_gettime|gettimeofday|rand|rand_r|random|srand|srandom|drand48|lrand48"
+                    + "|getpid|getrandom|arc4random|getenv|fork|pthread_create)\\s*\\("
+                    + "|/dev/u?random");
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Path spillDir;
+    private final long spillMaxBytes;
+
+    // key -> entry, in access order
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    // key -> bytes on disk, in access order; guarded by itself
+    private final LinkedHashMap<String, Long> spilled = new LinkedHashMap<>(64, 0.75f, true);
+    private long spilledBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong spillHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResultCache(PipelineMetrics metrics,
+                       @Value("${compilecloud.results.enabled:false}") boolean enabled,
+                       @Value("${compilecloud.results.max-bytes:67108864}") long maxBytes,
+                       @Value("${compilecloud.results.spill-dir:}") String spillDir,
+                       @Value("${compilecloud.results.spill-max-bytes:268435456}") long spillMaxBytes)
+            throws IOException {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.spillMaxBytes = spillMaxBytes;
+        this.spillDir = enabled && !spillDir.isBlank()
+                ? Paths.get(System.getProperty("user.dir")).resolve(spillDir).toAbsolutePath() : null;
+        if (this.spillDir != null) {
+            Files.createDirectories(this.spillDir);
+            loadSpillIndex();
+        }
+        metrics.gauge("compilecloud.results.hits", "Runs replayed from the result cache", () -> hits.get() + spillHits.get());
+        metrics.gauge("compilecloud.results.misses", "Cacheable runs that had to execute", misses::get);
+        metrics.gauge("compilecloud.results.bypassed", "Runs flagged non-deterministic", bypassed::get);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public static String key(String binaryHash, String stdin, ResourceLimits.Profile profile) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(binaryHash.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            // The whole profile, not just its name: changing a limit can change the result.
+            md.update(profile.toString().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(stdin.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hash(Path binary) throws IOException {
+        try (InputStream in = Files.newInputStream(binary)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) md.update(buf, 0, n);
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** True if {@code source} calls something whose result varies between runs (time, rand, pid...). */
+    public static boolean looksNondeterministic(String source) {
+        return NONDETERMINISTIC.matcher(source).find();
+    }
+
+    /** Counts a run that skipped the cache because it was flagged non-deterministic. */
+    public void bypass() {
+        bypassed.incrementAndGet();
+    }
+
+    /** The recorded result for {@code key}, or null on a miss. */
+    public Entry get(String key) {
+        if (!enabled) return null;
+        synchronized (memory) {
+            Entry e = memory.get(key);
+            if (e != null) {
+                hits.incrementAndGet();
+                return e;
+            }
+        }
+        Entry e = readSpilled(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        spillHits.incrementAndGet();
+        put(key, e); // promote; the spill file goes when it is next evicted there
+        return e;
+    }
+
+    public void put(String key, Entry entry) {
+        if (!enabled || entry.bytes() > maxBytes) return;
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+        synchronized (memory) {
+            Entry previous = memory.put(key, entry);
+            memoryBytes += entry.bytes() - (previous == null ? 0 : previous.bytes());
+            Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                it.remove();
+                memoryBytes -= eldest.getValue().bytes();
+                evicted.add(eldest);
+            }
+        }
+        for (Map.Entry<String, Entry> e : evicted) spill(e.getKey(), e.getValue());
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get() + spillHits.get(), m = misses.get();
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", enabled);
+        synchronized (memory) {
+            s.put("entries", memory.size());
+            s.put("bytes", memoryBytes);
+        }
+        s.put("maxBytes", maxBytes);
+        synchronized (spilled) {
+            s.put("spilledEntries", spilled.size());
+            s.put("spilledBytes", spilledBytes);
+        }
+        s.put("hits", hits.get());
+        s.put("spillHits", spillHits.get());
+        s.put("misses", m);
+        s.put("bypassed", bypassed.get());
+        s.put("evictions", evictions.get());
+        s.put("hitRate", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        return s;
+    }
+
+    private void spill(String key, Entry entry) {
+        if (spillDir == null) {
+            evictions.incrementAndGet();
+            return;
+        }
+        Path file = spillDir.resolve(key + SPILL_SUFFIX);
+        try {
+            Path staged = Files.createTempFile(spillDir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(staged)))) {
+                out.writeInt(entry.exitCode());
+                out.writeLong(entry.millis());
+                writeString(out, entry.stdout());
+                writeString(out, entry.stderr());
+            }
+            Files.move(staged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(file);
+            synchronized (spilled) {
+                Long previous = spilled.put(key, size);
+                spilledBytes += size - (previous == null ? 0 : previous);
+                evictSpillOverBudget(key);
+            }
+        } catch (IOException e) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Entry readSpilled(String key) {
+        if (spillDir == null) return null;
+        synchronized (spilled) {
+            if (spilled.get(key) == null) return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(spillDir.resolve(key + SPILL_SUFFIX))))) {
+            int exitCode = in.readInt();
+            long millis = in.readLong();
+            return new Entry(readString(in), readString(in), exitCode, millis);
+        } catch (IOException | IllegalArgumentException e) {
+            // evicted between the index check and the read, or a torn file from a crash
+            synchronized (spilled) { forgetSpilled(key); }
+            return null;
+        }
+    }
+
+    // Must hold the spilled lock. Never evicts the entry that was just added.
+    private void evictSpillOverBudget(String keep) {
+        Iterator<Map.Entry<String, Long>> it = spilled.entrySet().iterator();
+        while (spilledBytes > spillMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) continue;
+            it.remove();
+            spilledBytes -= eldest.getValue();
+            try { Files.deleteIfExists(spillDir.resolve(eldest.getKey() + SPILL_SUFFIX)); } catch (IOException ignored) {}
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void forgetSpilled(String key) {
+        Long size = spilled.remove(key);
+        if (size != null) spilledBytes -= size;
+        try { Files.deleteIfExists(spillDir.resolve(key + SPILL_SUFFIX)); } catch (IOException ignored) {}
+    }
+
+    private void loadSpillIndex() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(spillDir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SPILL_SUFFIX))
+                    .sorted(Comparator.comparing(p -> p.toFile().lastModified()))
+                    .toList();
+        }
+        synchronized (spilled) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                long size = Files.size(p);
+                spilled.put(name.substring(0, name.length() - SPILL_SUFFIX.length()), size);
+                spilledBytes += size;
+            }
+            evictSpillOverBudget(null);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,326 @@
+package org.utej.compilecloud;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The only thread that writes to a session. Producers append program output or whole
+ * protocol messages; {@link #run()} drains them in order, coalescing adjacent output with the
+ * same prefix into one frame once it reaches {@code batchChars} or has waited {@code flushInterval}.
+ * Producers block when more than {@code maxPendingChars} are waiting, which pushes back on the program.
+ * On a {@link WireProtocol#BINARY_V1} session each drained batch goes out as one binary message of
+ * records instead of one text frame per chunk.
+ *
+ * <p>With an {@link OutputLog}, everything sent is also recorded, and losing the session only
+ * detaches the writer: output keeps going into the log until {@link #attach} hands it a new
+ * session, which first gets the records it missed.
+ */
+public class SessionOutputWriter implements Runnable, Worker.Sink {
+
+    private static final int REPLAY_MESSAGE_BYTES = 64 * 1024;
+
+    private static final class Chunk {
+        final String prefix;            // null for a verbatim protocol message
+        final StringBuilder text;
+        final boolean control;          // not recorded in the log
+        final long createdNanos = System.nanoTime();
+
+        Chunk(String prefix, CharSequence text, boolean control) {
+            this.prefix = prefix;
+            this.text = new StringBuilder(text);
+            this.control = control;
+        }
+
+        byte type() {
+            return prefix == null ? WireProtocol.typeOfMessage(text.toString()) : WireProtocol.typeOfPrefix(prefix);
+        }
+
+        byte[] payload(byte type) {
+            return prefix == null ? WireProtocol.payloadOfMessage(text.toString(), type)
+                    : text.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final String token = UUID.randomUUID().toString();
+    private final OutputLog log;
+    private final PipelineMetrics.OutputMeter meter;
+    private final int batchChars;
+    private final long flushIntervalNanos;
+    private final int maxPendingChars;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataReady = lock.newCondition();
+    private final Condition spaceFree = lock.newCondition();
+    private final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+    private WebSocketSession session;   // null while detached; guarded by lock, read unlocked by run()
+    private WebSocketSession attachTo;  // set by attach(), picked up by run()
+    private long attachFrom;
+    private int pendingChars;
+    private int pendingMessages;
+    private boolean closed;
+    private boolean broken;
+
+    public SessionOutputWriter(WebSocketSession session, int batchChars, long flushIntervalMillis,
+                               PipelineMetrics.OutputMeter meter) {
+        this(session, batchChars, flushIntervalMillis, meter, null);
+    }
+
+    /** {@code log} may be null, in which case losing the session ends the writer. */
+    public SessionOutputWriter(WebSocketSession session, int batchChars, long flushIntervalMillis,
+                               PipelineMetrics.OutputMeter meter, OutputLog log) {
+        this.session = session;
+        this.log = log;
+        this.meter = meter;
+        this.batchChars = batchChars;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxPendingChars = batchChars * 8;
+    }
+
+    /** Identifies this writer to a reconnecting client. */
+    public String token() {
+        return token;
+    }
+
+    /** Queues program output. Returns false once the session is gone and the producer should stop. */
+    @Override
+    public boolean output(String prefix, CharSequence text) throws InterruptedException {
+        if (text.isEmpty()) return !broken;
+        lock.lock();
+        try {
+            while (pendingChars >= maxPendingChars && !closed && !broken) spaceFree.await();
+            if (closed || broken) return false;
+
+            Chunk tail = pending.peekLast();
+            if (tail != null && prefix.equals(tail.prefix) && tail.text.length() < batchChars) {
+                tail.text.append(text);
+            } else {
+                pending.addLast(new Chunk(prefix, text, false));
+            }
+            pendingChars += text.length();
+            dataReady.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Queues a protocol message (BUILD_LOG:, END:, ...) to be sent verbatim after any earlier output. */
+    @Override
+    public void send(String message) {
+        enqueue(message, false);
+    }
+
+    /** Like {@link #send}, but for messages that only make sense on the current session (RESUME:). */
+    public void sendControl(String message) {
+        enqueue(message, true);
+    }
+
+    /** Keeps recording output without a session, until {@link #attach} or {@link #close}. */
+    public void detach() {
+        lock.lock();
+        try {
+            session = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Continues on {@code newSession}: it is sent "RESUMED:&lt;n&gt;", every logged record from
+     * number n on, then live output. n is {@code fromSeq} unless older records were overwritten.
+     */
+    public void attach(WebSocketSession newSession, long fromSeq) {
+        lock.lock();
+        try {
+            attachTo = newSession;
+            attachFrom = fromSeq;
+            dataReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stops accepting data; whatever is already queued is still delivered. */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            dataReady.signal();
+            spaceFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        ArrayDeque<Chunk> batch = new ArrayDeque<>();
+        try {
+            while (true) {
+                WebSocketSession attaching;
+                WebSocketSession target;
+                lock.lock();
+                try {
+                    while (!isDue()) {
+                        if (pending.isEmpty()) {
+                            if (closed) return;
+                            dataReady.await();
+                        } else {
+                            long wait = flushIntervalNanos - (System.nanoTime() - pending.peekFirst().createdNanos);
+                            dataReady.awaitNanos(wait);
+                        }
+                    }
+                    batch.addAll(pending);
+                    pending.clear();
+                    pendingChars = 0;
+                    pendingMessages = 0;
+                    spaceFree.signalAll();
+                    attaching = attachTo;
+                    attachTo = null;
+                    target = session;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (log != null) {
+                    for (Chunk c : batch) {
+                        if (c.control) continue;
+                        byte type = c.type();
+                        log.append(type, c.payload(type));
+                    }
+                }
+                if (attaching != null) {
+                    // The batch was just logged, so the replay covers it.
+                    replay(attaching, batch);
+                } else if (target != null) {
+                    try {
+                        if (WireProtocol.isBinary(target)) sendRecords(target, batch);
+                        else sendFrames(target, batch);
+                    } catch (IOException | IllegalStateException e) {
+                        if (log == null) throw e;
+                        detachFrom(target);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (IOException | IllegalStateException e) {
+            markBroken();
+        } catch (InterruptedException e) {
+            markBroken();
+            Thread.currentThread().interrupt();
+        } finally {
+            if (log != null) log.close();
+        }
+    }
+
+    private void replay(WebSocketSession to, ArrayDeque<Chunk> batch) {
+        boolean binary = WireProtocol.isBinary(to);
+        long first = Math.max(attachFrom, log.firstSeq());
+        try {
+            // Control messages of this batch were never logged.
+            for (Chunk c : batch) {
+                if (c.control) to.sendMessage(WireProtocol.message(binary, c.text.toString()));
+            }
+            to.sendMessage(WireProtocol.message(binary, "RESUMED:" + first));
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            log.replay(first, (type, payload) -> {
+                if (binary) {
+                    WireProtocol.put(records, type, payload, 0, payload.length);
+                    if (records.size() >= REPLAY_MESSAGE_BYTES) {
+                        to.sendMessage(new BinaryMessage(records.toByteArray()));
+                        records.reset();
+                    }
+                } else {
+                    to.sendMessage(new TextMessage(WireProtocol.toText(type, payload)));
+                }
+            });
+            if (records.size() > 0) to.sendMessage(new BinaryMessage(records.toByteArray()));
+            lock.lock();
+            try {
+                session = to;
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // the new session died during the replay; stay detached
+        }
+    }
+
+    private void sendFrames(WebSocketSession to, ArrayDeque<Chunk> batch) throws IOException {
+        for (Chunk c : batch) {
+            TextMessage frame = new TextMessage(c.prefix == null ? c.text.toString() : c.prefix + c.text);
+            to.sendMessage(frame);
+            if (c.prefix != null) meter.frame(frame.getPayloadLength());
+        }
+    }
+
+    private void sendRecords(WebSocketSession to, ArrayDeque<Chunk> batch) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(batchChars + 64);
+        int outputBytes = 0;
+        for (Chunk c : batch) {
+            if (c.prefix == null) {
+                WireProtocol.putMessage(records, c.text.toString());
+            } else {
+                int before = records.size();
+                byte[] payload = c.text.toString().getBytes(StandardCharsets.UTF_8);
+                WireProtocol.put(records, WireProtocol.typeOfPrefix(c.prefix), payload, 0, payload.length);
+                outputBytes += records.size() - before;
+            }
+        }
+        to.sendMessage(new BinaryMessage(records.toByteArray()));
+        if (outputBytes > 0) meter.frame(outputBytes);
+    }
+
+    private void enqueue(String message, boolean control) {
+        lock.lock();
+        try {
+            if (closed || broken) return;
+            pending.addLast(new Chunk(null, message, control));
+            pendingChars += message.length();
+            pendingMessages++;
+            dataReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must hold the lock.
+    private boolean isDue() {
+        if (attachTo != null) return true;
+        if (pending.isEmpty()) return false;
+        if (closed || pendingChars >= batchChars || pendingMessages > 0) return true;
+        return System.nanoTime() - pending.peekFirst().createdNanos >= flushIntervalNanos;
+    }
+
+    private void detachFrom(WebSocketSession failed) {
+        lock.lock();
+        try {
+            if (session == failed) session = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markBroken() {
+        lock.lock();
+        try {
+            broken = true;
+            pending.clear();
+            pendingChars = 0;
+            pendingMessages = 0;
+            spaceFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
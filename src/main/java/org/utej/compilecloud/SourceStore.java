@@ -0,0 +1,259 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The sources behind /api/files, one file per name. Every change bumps the file's version and
+ * its SHA-256. Only the version and hash stay in memory, so a save identical to what is stored is
+ * answered without touching disk; the content is read back when a patch needs its base or a
+ * compile needs the source. A patch is applied to the version the client says it edited (any
+ * other base is a conflict). Writes replace the file atomically, and a file changed on disk by
+ * something else gets a new version when it is next read.
+ *
+ * <p>Each file also remembers the hash its artifact was last built from, so compiling a source
+ * that has not changed since can skip the compile lane. Versions start again at 1 after a restart.
+ */
+@Component
+public class SourceStore {
+
+    public enum Outcome { SAVED, UNCHANGED, CONFLICT, NOT_FOUND, INVALID }
+
+    /** {@code content} is null where only the version is reported: conflicts and invalid patches. */
+    public record Version(String fileName, long version, String hash, String content) {
+        public Map<String, Object> toMap() {
+            return Map.of("fileName", fileName, "version", version, "hash", hash);
+        }
+    }
+
+    /** The stored version after a save or patch; for CONFLICT the current one the client should rebase on. */
+    public record Saved(Outcome outcome, Version version, String msg) {}
+
+    /** Replaces chars [start, end) of the base text with {@code text}; offsets are UTF-16 indices, as in JavaScript. */
+    public record Edit(int start, int end, String text) {}
+
+    private static final class Entry {
+        final ReentrantLock lock = new ReentrantLock();
+        final String fileName;
+        long version;
+        String hash;
+        String builtHash;
+
+        Entry(String fileName, long version, String hash) {
+            this.fileName = fileName;
+            this.version = version;
+            this.hash = hash;
+        }
+
+        Version version(String content) {
+            return new Version(fileName, version, hash, content);
+        }
+    }
+
+    private final Path dir;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong patches = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong upToDateBuilds = new AtomicLong();
+
+    public SourceStore(@Value("${compilecloud.sources.dir:}") String dir) throws IOException {
+        this.dir = (dir.isBlank() ? Paths.get(System.getProperty("user.dir"), "temp_files") : Paths.get(dir))
+                .toAbsolutePath();
+        Files.createDirectories(this.dir);
+    }
+
+    /** A new empty source. */
+    public Version create(String fileName) throws IOException {
+        Path file = path(fileName);
+        Files.createFile(file);
+        Entry e = new Entry(file.getFileName().toString(), 1, sha256(""));
+        entries.put(e.fileName, e);
+        return e.version("");
+    }
+
+    /** The stored version, or null if there is no such file. */
+    public Version current(String fileName) throws IOException {
+        Entry e = entry(fileName);
+        if (e == null) return null;
+        e.lock.lock();
+        try {
+            return read(e);
+        } finally {
+            e.lock.unlock();
+        }
+    }
+
+    /**
+     * Stores {@code content} in full. With a {@code baseVersion}, the save only goes through if
+     * that is still the stored version.
+     */
+    public Saved save(String fileName, String content, Long baseVersion) throws IOException {
+        Entry e = entry(fileName);
+        if (e == null) return new Saved(Outcome.NOT_FOUND, null, "File not found");
+        bytesReceived.addAndGet(content.length());
+        e.lock.lock();
+        try {
+            if (baseVersion != null && baseVersion != e.version) return conflict(e, baseVersion);
+            return store(e, content);
+        } finally {
+            e.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies {@code edits}, each against the text of {@code baseVersion}, and stores the result.
+     * If {@code expectedHash} is given it must match the patched text, which catches a client whose
+     * copy of the base has drifted.
+     */
+    public Saved patch(String fileName, long baseVersion, List<Edit> edits, String expectedHash) throws IOException {
+        Entry e = entry(fileName);
+        if (e == null) return new Saved(Outcome.NOT_FOUND, null, "File not found");
+        for (Edit edit : edits) bytesReceived.addAndGet(edit.text() == null ? 0 : edit.text().length());
+        e.lock.lock();
+        try {
+            if (baseVersion != e.version) return conflict(e, baseVersion);
+            Version base = read(e);
+            if (baseVersion != base.version()) return conflict(e, baseVersion);
+            String patched = apply(base.content(), edits);
+            if (patched == null) return new Saved(Outcome.INVALID, e.version(null), "Edits overlap or fall outside the file");
+            if (expectedHash != null && !expectedHash.equalsIgnoreCase(sha256(patched))) {
+                conflicts.incrementAndGet();
+                return new Saved(Outcome.CONFLICT, e.version(null), "Patched content does not match hash " + expectedHash);
+            }
+            patches.incrementAndGet();
+            return store(e, patched);
+        } finally {
+            e.lock.unlock();
+        }
+    }
+
+    /** True if {@code exe} exists and was built from exactly {@code source}. */
+    public boolean isBuilt(Version source, Path exe) {
+        Entry e = entries.get(source.fileName());
+        if (e == null || !Files.exists(exe)) return false;
+        e.lock.lock();
+        try {
+            boolean built = source.hash().equals(e.builtHash);
+            if (built) upToDateBuilds.incrementAndGet();
+            return built;
+        } finally {
+            e.lock.unlock();
+        }
+    }
+
+    /** Records which source the artifact now holds; null while a compile is replacing it. */
+    public void built(String fileName, String hash) {
+        Entry e = entries.get(fileName);
+        if (e == null) return;
+        e.lock.lock();
+        try {
+            e.builtHash = hash;
+        } finally {
+            e.lock.unlock();
+        }
+    }
+
+    public Path path(String fileName) {
+        return dir.resolve(Paths.get(fileName).getFileName());
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+                "files", entries.size(),
+                "writes", writes.get(),
+                "unchangedSaves", unchanged.get(),
+                "patches", patches.get(),
+                "conflicts", conflicts.get(),
+                "bytesReceived", bytesReceived.get(),
+                "upToDateBuilds", upToDateBuilds.get());
+    }
+
+    /** Applies non-overlapping edits given against the same text; null if any is out of range. */
+    static String apply(String base, List<Edit> edits) {
+        List<Edit> sorted = new ArrayList<>(edits);
+        sorted.sort(Comparator.comparingInt(Edit::start));
+        StringBuilder out = new StringBuilder(base.length());
+        int pos = 0;
+        for (Edit edit : sorted) {
+            if (edit.start() < pos || edit.end() < edit.start() || edit.end() > base.length()) return null;
+            out.append(base, pos, edit.start());
+            if (edit.text() != null) out.append(edit.text());
+            pos = edit.end();
+        }
+        return out.append(base, pos, base.length()).toString();
+    }
+
+    static String sha256(String content) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Must hold e.lock.
+    private Saved store(Entry e, String content) throws IOException {
+        String hash = sha256(content);
+        if (hash.equals(e.hash)) {
+            unchanged.incrementAndGet();
+            return new Saved(Outcome.UNCHANGED, e.version(content), null);
+        }
+        Path file = path(e.fileName);
+        Path tmp = Files.createTempFile(dir, ".save-", ".tmp");
+        try {
+            Files.writeString(tmp, content);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        writes.incrementAndGet();
+        e.version++;
+        e.hash = hash;
+        return new Saved(Outcome.SAVED, e.version(content), null);
+    }
+
+    // Must hold e.lock.
+    private Saved conflict(Entry e, long baseVersion) {
+        conflicts.incrementAndGet();
+        return new Saved(Outcome.CONFLICT, e.version(null),
+                "Base version " + baseVersion + " is not current (" + e.version + ")");
+    }
+
+    // Must hold e.lock. Content that no longer matches the stored hash was changed outside the store.
+    private Version read(Entry e) throws IOException {
+        String content = Files.readString(path(e.fileName));
+        String hash = sha256(content);
+        if (!hash.equals(e.hash)) {
+            e.version++;
+            e.hash = hash;
+        }
+        return e.version(content);
+    }
+
+    // Files written before this process started are picked up as version 1 on first use.
+    private Entry entry(String fileName) throws IOException {
+        Path file = path(fileName);
+        String name = file.getFileName().toString();
+        Entry e = entries.get(name);
+        if (e != null) return e;
+        if (!Files.isRegularFile(file)) return null;
+        Entry loaded = new Entry(name, 1, sha256(Files.readString(file)));
+        e = entries.putIfAbsent(name, loaded);
+        return e != null ? e : loaded;
+    }
+}
@@ -0,0 +1,172 @@
+package org.utej.compilecloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A running program's stdin, open for the whole run. Lines and uploaded files are queued and
+ * {@link #run()} writes them in order, draining everything queued into the stream before one
+ * flush. The pipe is closed only by {@link #eof()} (after the queue drains) or {@link #close()}.
+ * Files are copied in 64 KiB chunks: the Process API only exposes stdin as an OutputStream, so
+ * there is no kernel-side transfer, but a large upload is never held on the heap whole. Files
+ * arrive while the program runs, so they cannot be redirected onto stdin at launch either.
+ */
+final class StdinPipe implements Runnable {
+
+    private static final Object EOF = new Object();
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final OutputStream stdin;
+    private final long maxPendingBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final ArrayDeque<Object> pending = new ArrayDeque<>(); // byte[], Path or EOF
+    private long pendingBytes;
+    private boolean eofQueued;
+    private boolean closed;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    StdinPipe(OutputStream stdin, long maxPendingBytes) {
+        this.stdin = stdin;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /** Queues bytes for the program. False if stdin is closed or more than the limit is already waiting. */
+    boolean write(byte[] data) {
+        lock.lock();
+        try {
+            if (!isOpen() || pendingBytes + data.length > maxPendingBytes) return false;
+            pending.addLast(data);
+            pendingBytes += data.length;
+            ready.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Queues the whole of {@code file}, after anything written before. False if stdin is closed. */
+    boolean transfer(Path file) {
+        lock.lock();
+        try {
+            if (!isOpen()) return false;
+            pending.addLast(file);
+            ready.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Closes stdin once everything queued so far has been written; the program then reads end-of-file. */
+    void eof() {
+        lock.lock();
+        try {
+            if (!isOpen()) return;
+            eofQueued = true;
+            pending.addLast(EOF);
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isOpen() {
+        lock.lock();
+        try {
+            return !closed && !eofQueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** Drops whatever is queued and closes stdin; for when the run ends. */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.clear();
+            pendingBytes = 0;
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly();
+    }
+
+    @Override
+    public void run() {
+        ArrayDeque<Object> batch = new ArrayDeque<>();
+        byte[] chunk = new byte[COPY_CHUNK];
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (pending.isEmpty() && !closed) ready.await();
+                    if (closed) return;
+                    batch.addAll(pending);
+                    pending.clear();
+                    pendingBytes = 0;
+                } finally {
+                    lock.unlock();
+                }
+
+                for (Object item : batch) {
+                    if (item == EOF) {
+                        stdin.close();
+                        return;
+                    } else if (item instanceof byte[] data) {
+                        stdin.write(data);
+                        bytesWritten.addAndGet(data.length);
+                    } else {
+                        copyFile((Path) item, chunk);
+                    }
+                }
+                stdin.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            // the program exited or closed its stdin
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.lock();
+            try {
+                closed = true;
+                pending.clear();
+                pendingBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+            closeQuietly();
+        }
+    }
+
+    private void copyFile(Path file, byte[] chunk) throws IOException {
+        try (InputStream from = Files.newInputStream(file)) {
+            for (int n; (n = from.read(chunk)) > 0; ) {
+                stdin.write(chunk, 0, n);
+                bytesWritten.addAndGet(n);
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            stdin.close();
+        } catch (IOException ignored) { }
+    }
+}
@@ -0,0 +1,86 @@
+package org.utej.compilecloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a process stream into a {@link Worker.Sink}.
+ * Reads in blocks and decodes incrementally, so a multi-byte UTF-8 character split
+ * across two reads is carried over instead of being mangled.
+ */
+class StreamGobbler implements Runnable {
+
+    static final int BUF_SIZE = 8192;
+
+    private final InputStream inputStream;
+    private final Worker.Sink writer;
+    private final String prefix;
+    private final AtomicLong budget;
+    private final Runnable onBudgetExhausted;
+    private final Runnable onFirstRead;
+
+    /**
+     * {@code budget} is the number of bytes the run may still print, shared by its stdout and stderr
+     * gobblers; {@code onBudgetExhausted} runs once when it goes negative.
+     * {@code onFirstRead} runs when the first bytes arrive.
+     */
+    StreamGobbler(InputStream inputStream, Worker.Sink writer, String prefix,
+                  AtomicLong budget, Runnable onBudgetExhausted, Runnable onFirstRead) {
+        this.inputStream = inputStream;
+        this.writer = writer;
+        this.prefix = prefix;
+        this.budget = budget;
+        this.onBudgetExhausted = onBudgetExhausted;
+        this.onFirstRead = onFirstRead;
+    }
+
+    @Override
+    public void run() {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUF_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUF_SIZE); // UTF-8 never yields more chars than bytes
+
+        try (InputStream is = inputStream) {
+            int n;
+            boolean first = true;
+            while ((n = is.read(bytes.array(), bytes.position(), bytes.remaining())) != -1) {
+                if (first && n > 0) {
+                    first = false;
+                    onFirstRead.run();
+                }
+                long left = budget.addAndGet(-n);
+                if (left < 0) {
+                    if (left + n >= 0) onBudgetExhausted.run();
+                    return;
+                }
+                bytes.position(bytes.position() + n);
+                bytes.flip();
+                decoder.decode(bytes, chars, false);
+                bytes.compact(); // keeps an incomplete trailing sequence for the next read
+                if (!emit(chars)) return;
+            }
+            bytes.flip();
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            emit(chars);
+        } catch (IOException ignored) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean emit(CharBuffer chars) throws InterruptedException {
+        chars.flip();
+        boolean open = writer.output(prefix, chars);
+        chars.clear();
+        return open;
+    }
+}
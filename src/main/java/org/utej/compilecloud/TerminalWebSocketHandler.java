@@ -3,8 +3,11 @@ package org.utej.compilecloud;
 import com.pty4j.PtyProcess;
 import com.pty4j.PtyProcessBuilder;
 import com.pty4j.WinSize;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -15,32 +18,99 @@ import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.springframework.web.socket.BinaryMessage;
 import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Interactive PTY sessions. Everything sent to the client is also kept in the session's
+ * {@link OutputLog}; when the socket drops while the program runs, the session waits
+ * {@code compilecloud.resume.grace-seconds} for a reconnect with {@code ?resume=<token>&offset=<n>}.
+ */
 @Component
-public class TerminalWebSocketHandler extends TextWebSocketHandler {
+public class TerminalWebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
 
-    private static final Path BASE_DIR =
-            Paths.get(System.getProperty("user.dir"), "temp_files").toAbsolutePath();
     private static final int BUF_SIZE = 8192;
+    private static final Pattern RC_PATTERN = Pattern.compile("__RC:(-?\\d+)__");
 
     private static class SessionState {
-        PtyProcess pty;
-        OutputStream stdin;
+        volatile PtyProcess pty;
+        volatile WorkspaceManager.Workspace workspace;  // the program's working directory
+        volatile LauncherPool.Launch launch;            // null for the Windows shell
+        volatile OutputStream stdin;
+        Future<?> launchTask;
         Future<?> pumpTask;
+        final String token = UUID.randomUUID().toString();
+        final ReentrantLock sendLock = new ReentrantLock(); // orders log appends with sends
+        OutputLog log;                             // null when resume is disabled
+        volatile ConcurrentWebSocketSessionDecorator out;   // thread-safe, bounded view of the session; null while detached
+        volatile boolean binary;                   // WireProtocol.BINARY_V1 records instead of text/raw frames
+        volatile boolean closed;                   // stopped for good; nobody will resume it
+        CollapsingByteQueue output;                // PTY output waiting for the socket
+        volatile long sendStartedNanos;            // non-zero while a frame is being written
+        long startedNanos;                         // when the PTY was spawned
         final AtomicBoolean alive = new AtomicBoolean(true);
         final AtomicBoolean sawCtrlC = new AtomicBoolean(false);
+        final AtomicBoolean timedOut = new AtomicBoolean(false);
         final AtomicBoolean windowsShell = new AtomicBoolean(false);
         final AtomicBoolean rcSeen = new AtomicBoolean(false);
         volatile Integer reportedExitCode = null;
     }
 
     private final ConcurrentHashMap<String, SessionState> states = new ConcurrentHashMap<>();
-    private final ExecutorService ioPool = Executors.newCachedThreadPool();
+    private final DetachedRuns<SessionState> detached;
+    private final ExecutorService ioPool;
+    private final ThreadPoolExecutor ptyPool = (ThreadPoolExecutor) Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("pty-pump-", 0).daemon(true).factory());
+    private final JobScheduler scheduler;
+    private final LauncherPool launchers;
+    private final ResourceLimits.Profile terminalProfile;
+    private final PipelineMetrics metrics;
+    private final PipelineMetrics.OutputMeter outputMeter;
+    private final WorkspaceManager workspaces;
+    private final int sendBufferBytes;
+    private final int sendTimeLimitMs;
+    private final long maxOutputBytes;
+    private final List<String> subProtocols;
+    private final int scrollbackBytes;
+    private final long scrollbackSpillBytes;
+
+    public TerminalWebSocketHandler(JobScheduler scheduler,
+                                    WorkspaceManager workspaces,
+                                    ResourceLimits limits,
+                                    LauncherPool launchers,
+                                    PipelineMetrics metrics,
+                                    @Qualifier("ioExecutor") ExecutorService ioPool,
+                                    @Value("${compilecloud.terminal.send-buffer-bytes:262144}") int sendBufferBytes,
+                                    @Value("${compilecloud.terminal.send-time-limit-ms:10000}") int sendTimeLimitMs,
+                                    @Value("${compilecloud.output.max-bytes-per-run:16777216}") long maxOutputBytes,
+                                    @Value("${compilecloud.limits.terminal-profile:interactive}") String terminalProfile,
+                                    @Value("${compilecloud.ws.binary-frames:true}") boolean binaryFrames,
+                                    @Value("${compilecloud.resume.grace-seconds:30}") long resumeGraceSeconds,
+                                    @Value("${compilecloud.resume.buffer-bytes:262144}") int scrollbackBytes,
+                                    @Value("${compilecloud.resume.spill-bytes:16777216}") long scrollbackSpillBytes) {
+        this.scheduler = scheduler;
+        this.launchers = launchers;
+        this.terminalProfile = limits.profile(terminalProfile);
+        this.workspaces = workspaces;
+        this.metrics = metrics;
+        this.outputMeter = metrics.output(PipelineMetrics.PTY);
+        this.ioPool = ioPool;
+        this.sendBufferBytes = sendBufferBytes;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.maxOutputBytes = maxOutputBytes;
+        this.subProtocols = WireProtocol.subProtocols(binaryFrames);
+        this.detached = new DetachedRuns<>(resumeGraceSeconds, ioPool);
+        this.scrollbackBytes = scrollbackBytes;
+        this.scrollbackSpillBytes = scrollbackSpillBytes;
+        metrics.gauge("compilecloud.pty.sessions", "Open terminal sessions", states::size);
+        metrics.gauge("compilecloud.sessions.detached", "Runs waiting for their client to reconnect",
+                detached::size, "handler", PipelineMetrics.PTY);
+        metrics.gauge("compilecloud.pty.pump.threads", "Platform threads pumping PTY output", ptyPool::getActiveCount);
+    }
 
     static {
         // Prefer ConPTY when available (more stable than winpty)
@@ -48,123 +118,332 @@ public class TerminalWebSocketHandler extends TextWebSocketHandler {
     }
 
     @Override
-    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        Files.createDirectories(BASE_DIR);
+    public List<String> getSubProtocols() {
+        return subProtocols;
+    }
 
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         URI uri = session.getUri();
+        Map<String, String> query = CompilerWebSocketHandler.resumeQuery(uri);
+        SessionState resumed = detached.attach(query.get("resume"));
+        if (resumed != null) {
+            states.put(session.getId(), resumed);
+            attach(resumed, session, CompilerWebSocketHandler.parseOffset(query.get("offset")));
+            return;
+        }
         String fileName = UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst("fileName");
 
         if (fileName == null || !fileName.endsWith(".c")) {
-            session.sendMessage(new TextMessage("ERROR: missing/invalid fileName\n"));
+            session.sendMessage(WireProtocol.message(session, "ERROR: missing/invalid fileName\n"));
             session.close();
             return;
         }
 
         boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
         String exeBase = fileName.substring(0, fileName.length() - 2);
-        Path exeNoExt = BASE_DIR.resolve(exeBase);
-        Path exeWin = BASE_DIR.resolve(exeBase + ".exe");
+        Path exeNoExt = workspaces.artifact(exeBase);
+        Path exeWin = workspaces.artifact(exeBase + ".exe");
         Path finalExe = Files.exists(exeNoExt) ? exeNoExt : (Files.exists(exeWin) ? exeWin : null);
 
         if (finalExe == null) {
-            session.sendMessage(new TextMessage("ERROR: executable not found. Compile first.\n"));
+            session.sendMessage(WireProtocol.message(session, "ERROR: executable not found. Compile first.\n"));
             session.close();
             return;
         }
 
-        // --- Launch strategy ---
-        // Windows: start a *persistent* cmd and inject the command to run the exe, then echo __RC:exit__
-        // Unix: run binary directly.
-        String[] command = isWindows
-                ? new String[] { "cmd.exe", "/Q", "/D" }   // quiet, no AutoRun
-                : new String[] { finalExe.toString() };
-
-        PtyProcessBuilder builder = new PtyProcessBuilder(command)
-                .setEnvironment(new HashMap<>(System.getenv()))
-                .setDirectory(BASE_DIR.toString())
-                .setInitialColumns(80)
-                .setInitialRows(24);
+        SessionState st = new SessionState();
+        st.windowsShell.set(isWindows);
+        st.binary = WireProtocol.isBinary(session);
+        st.out = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, sendBufferBytes,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP);
+        st.output = new CollapsingByteQueue(sendBufferBytes, 64 * 1024);
+        if (detached.enabled()) {
+            st.log = new OutputLog(scrollbackBytes, scrollbackSpillBytes, workspaces.scrollbackDir());
+            st.out.sendMessage(WireProtocol.message(st.binary, "RESUME:" + st.token));
+        }
+        states.put(session.getId(), st);
 
-        PtyProcess pty = builder.start();
+        // Launch off the WebSocket thread: the job may have to wait for an execute slot.
+        st.launchTask = ioPool.submit(() -> {
+            JobScheduler.Permit permit;
+            try {
+                permit = scheduler.acquire(JobScheduler.Lane.EXECUTE, session.getId(),
+                        position -> ioPool.execute(() -> sendText(st, "QUEUED:" + position + "\n")));
+            } catch (RejectedExecutionException e) {
+                sendText(st, "ERROR: server busy, try again shortly.\n");
+                try { session.close(); } catch (IOException ignored) {}
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                st.workspace = workspaces.open(session.getId());
+                startPty(st, finalExe, isWindows, permit);
+            } catch (IOException e) {
+                permit.close();
+                closeLaunch(st);
+                closeWorkspace(st);
+                sendText(st, "ERROR: failed to start: " + e.getMessage() + "\n");
+            }
+        });
+    }
 
-        SessionState st = new SessionState();
+    // The pump owns the execute slot from here on and releases it once the program has exited.
+    private void startPty(SessionState st, Path finalExe, boolean isWindows, JobScheduler.Permit permit)
+            throws IOException {
+        if (st.closed) {
+            permit.close();
+            closeWorkspace(st);
+            return;
+        }
+        // --- Launch strategy ---
+        // Windows: start a *persistent* cmd and inject the command to run the exe, then echo __RC:exit__
+        // Unix: run binary directly, on a pre-spawned PTY when one is idle.
+        st.startedNanos = System.nanoTime();
+        PtyProcess pty;
+        if (isWindows) {
+            pty = new PtyProcessBuilder(new String[] { "cmd.exe", "/Q", "/D" })   // quiet, no AutoRun
+                    .setEnvironment(new HashMap<>(System.getenv()))
+                    .setDirectory(st.workspace.dir().toString())
+                    .setInitialColumns(80)
+                    .setInitialRows(24)
+                    .start();
+        } else {
+            st.launch = launchers.start(LauncherPool.Kind.PTY, terminalProfile, st.workspace.dir(), finalExe.toString());
+            pty = st.launch.pty();
+        }
         st.pty = pty;
         st.stdin = pty.getOutputStream();
-        st.windowsShell.set(isWindows);
+        if (!st.alive.get()) { // connection closed while we were starting
+            pty.destroy();
+            permit.close();
+            closeLaunch(st);
+            closeWorkspace(st);
+            return;
+        }
 
-        // Pump PTY -> WS (binary). Also sniff for "__RC:<n>__" on Windows to capture the true exit code.
-        Pattern rcPattern = Pattern.compile("__RC:(-?\\d+)__");
-        st.pumpTask = ioPool.submit(() -> {
-            try (InputStream is = pty.getInputStream()) {
-                byte[] buf = new byte[BUF_SIZE];
-                int n;
-                ByteArrayOutputStream sniff = new ByteArrayOutputStream(4096);
-
-                while ((n = is.read(buf)) != -1 && session.isOpen()) {
-                    session.sendMessage(new BinaryMessage(Arrays.copyOf(buf, n)));
-
-                    // On Windows, sniff text to pick out __RC:...__
-                    if (st.windowsShell.get() && !st.rcSeen.get()) {
-                        sniff.write(buf, 0, n);
-                        // Limit sniff buffer size
-                        if (sniff.size() > 64_000) {
-                            sniff.reset(); // just keep it bounded
-                        }
-                        String text = sniff.toString(StandardCharsets.UTF_8);
-                        Matcher m = rcPattern.matcher(text);
-                        if (m.find()) {
-                            try {
-                                st.reportedExitCode = Integer.parseInt(m.group(1));
-                            } catch (NumberFormatException ignored) {}
-                            st.rcSeen.set(true);
-                        }
-                    }
-                }
-            } catch (IOException ignored) { }
-        });
+        sendText(st, "[started] " + finalExe.getFileName() + "\n");
 
-        states.put(session.getId(), st);
+        // Wall-clock cap: a program blocked on input or sleeping uses no CPU time.
+        CompletableFuture.delayedExecutor(terminalProfile.wallSeconds(), TimeUnit.SECONDS, ioPool).execute(() -> {
+            if (pty.isAlive() && !st.sawCtrlC.get()) {
+                st.timedOut.set(true);
+                Processes.killTree(pty);
+            }
+        });
 
-        session.sendMessage(new TextMessage("[started] " + finalExe.getFileName() + "\n"));
+        // PTY reads are native (JNA) calls that would pin a virtual thread's carrier,
+        // so the pump always gets a platform thread. It also reports the exit once the PTY hits EOF.
+        Future<?> sender = ioPool.submit(() -> drain(st));
+        st.pumpTask = ptyPool.submit(() -> {
+            try (permit) {
+                boolean capped = pump(st, pty);
+                int raw = pty.waitFor();
+                boolean killedByUs = capped || st.timedOut.get() || st.sawCtrlC.get();
+                ResourceLimits.Violation violation =
+                        killedByUs || st.launch == null ? null : st.launch.sandbox().killedBy(raw);
+                String outcome = capped ? "output_limit" : st.timedOut.get() ? "timeout"
+                        : st.sawCtrlC.get() ? "ctrlc" : violation != null ? "limit" : "exited";
+                metrics.run(PipelineMetrics.PTY, outcome, System.nanoTime() - st.startedNanos);
+                if (violation != null) metrics.limitKill(PipelineMetrics.PTY, violation);
+                st.output.close();
+                try { sender.get(); } catch (ExecutionException | CancellationException ignored) {}
+                if (capped) {
+                    sendText(st, "\r\n[output limit of " + maxOutputBytes + " bytes reached – process terminated]\r\n");
+                } else if (st.timedOut.get()) {
+                    sendText(st, "\r\n[time limit of " + terminalProfile.wallSeconds() + " s reached – process terminated]\r\n");
+                } else if (violation != null) {
+                    sendText(st, "\r\n[process terminated: " + violation.message() + "]\r\n");
+                }
+                reportExit(st, raw, isWindows);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeLaunch(st);
+                closeWorkspace(st);
+            }
+        });
 
         // If Windows: inject the command to run exe and echo RC, then return to shell prompt (keeps terminal open)
         if (isWindows) {
             // Quote path in case of spaces; run, then echo RC marker
-            String cmd = "\"" + finalExe.getFileName().toString() + "\" & echo __RC:%errorlevel%__\r\n";
+            String cmd = "\"" + finalExe + "\" & echo __RC:%errorlevel%__\r\n";
             st.stdin.write(cmd.getBytes(StandardCharsets.UTF_8));
             st.stdin.flush();
         }
+    }
+
+    /**
+     * Pump PTY -> output queue. The pump never waits on the socket: when the client falls behind,
+     * the queue collapses output into "[... N bytes skipped ...]" and the program keeps running.
+     * Returns true if the run was killed for exceeding the per-run output cap.
+     * Also sniffs for "__RC:<n>__" on Windows to capture the true exit code.
+     */
+    private boolean pump(SessionState st, PtyProcess pty) {
+        long sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+        long total = 0;
+        try (InputStream is = pty.getInputStream()) {
+            byte[] buf = new byte[BUF_SIZE];
+            int n;
+            ByteArrayOutputStream sniff = new ByteArrayOutputStream(4096);
+
+            while ((n = is.read(buf)) != -1 && !st.closed) {
+                if (total == 0 && n > 0) firstOutput(st, System.nanoTime() - st.startedNanos);
+                total += n;
+                if (total > maxOutputBytes) {
+                    pty.destroy();
+                    return true;
+                }
+                st.output.offer(buf, 0, n);
+
+                // A single frame stuck longer than the send-time limit means the client is gone for good.
+                long started = st.sendStartedNanos;
+                WebSocketSession current = st.out;
+                if (started != 0 && current != null && System.nanoTime() - started > sendTimeLimitNanos) {
+                    pty.destroy();
+                    current.close(CloseStatus.SESSION_NOT_RELIABLE);
+                    return false;
+                }
 
-        // Waiter to report exit (with small delay to flush)
-        ioPool.submit(() -> {
+                // On Windows, sniff text to pick out __RC:...__
+                if (st.windowsShell.get() && !st.rcSeen.get()) {
+                    Integer rc = sniffExitCode(sniff, buf, n);
+                    if (rc != null) {
+                        st.reportedExitCode = rc;
+                        st.rcSeen.set(true);
+                    }
+                }
+            }
+        } catch (IOException ignored) { }
+        return false;
+    }
+
+    private void firstOutput(SessionState st, long nanos) {
+        if (st.launch != null) launchers.firstOutput(st.launch, nanos);
+        else metrics.firstOutput(PipelineMetrics.PTY, false, nanos);
+    }
+
+    private static void closeLaunch(SessionState st) {
+        LauncherPool.Launch launch = st.launch;
+        st.launch = null;
+        if (launch != null) launch.close();
+    }
+
+    private static void closeWorkspace(SessionState st) {
+        WorkspaceManager.Workspace ws = st.workspace;
+        st.workspace = null;
+        if (ws != null) ws.close();
+    }
+
+    /** Appends a PTY chunk to {@code sniff} and returns the exit code once "__RC:<n>__" has been seen. */
+    static Integer sniffExitCode(ByteArrayOutputStream sniff, byte[] buf, int n) {
+        sniff.write(buf, 0, n);
+        // Limit sniff buffer size
+        if (sniff.size() > 64_000) {
+            sniff.reset(); // just keep it bounded
+        }
+        String text = sniff.toString(StandardCharsets.UTF_8);
+        Matcher m = RC_PATTERN.matcher(text);
+        if (m.find()) {
             try {
-                int raw = pty.waitFor();
-                st.alive.set(false);
-                try { Thread.sleep(30); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
+                return Integer.parseInt(m.group(1));
+            } catch (NumberFormatException ignored) {
+                // out of int range: fall back to the raw exit code
+            }
+        }
+        return null;
+    }
 
-                if (!session.isOpen()) return;
+    // Queue -> WS (binary: raw bytes, or one OUTPUT record). The only writer of program output for the session.
+    private void drain(SessionState st) {
+        try {
+            byte[] frame;
+            while ((frame = st.output.take()) != null) {
+                st.sendStartedNanos = System.nanoTime();
+                if (emit(st, WireProtocol.OUTPUT, frame)) outputMeter.frame(frame.length);
+                st.sendStartedNanos = 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                Integer exitToShow = st.reportedExitCode;
-                if (!isWindows) {
-                    // Unix: the process *is* the exe, so raw is fine
-                    exitToShow = (exitToShow == null) ? raw : exitToShow;
-                } else {
-                    // Windows shell: prefer parsed __RC:...__, fallback to raw if not seen
-                    if (exitToShow == null) exitToShow = raw;
+    /** Logs one record and sends it if a client is attached; returns whether it was sent. */
+    private static boolean emit(SessionState st, byte type, byte[] payload) {
+        st.sendLock.lock();
+        try {
+            if (st.closed) return false;
+            if (st.log != null) st.log.append(type, payload);
+            ConcurrentWebSocketSessionDecorator out = st.out;
+            if (out == null) return false;
+            out.sendMessage(frame(st.binary, type, payload));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        } finally {
+            st.sendLock.unlock();
+        }
+    }
 
-                    // If we *didn’t* see Ctrl+C from client, treat 0xC000013A as a spurious control event and show 0
-                    if (!st.sawCtrlC.get() && (exitToShow == -1073741510 || exitToShow == 0xC000013A)) {
-                        exitToShow = 0;
-                    }
-                }
+    // Terminal output goes out raw on the text protocol; everything else as its text message.
+    private static WebSocketMessage<?> frame(boolean binary, byte type, byte[] payload) {
+        if (binary) return new BinaryMessage(WireProtocol.record(type, payload, 0, payload.length));
+        if (type == WireProtocol.OUTPUT) return new BinaryMessage(payload);
+        return new TextMessage(WireProtocol.toText(type, payload));
+    }
 
-                session.sendMessage(new TextMessage("\r\n[process exited with code " + exitToShow + "]\r\n"));
-                session.sendMessage(new TextMessage("[terminal idle – press Run to start again]\r\n"));
+    // Replays what the client missed onto its new socket, then makes it the live one.
+    private void attach(SessionState st, WebSocketSession session, long fromSeq) {
+        ConcurrentWebSocketSessionDecorator out = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs,
+                sendBufferBytes, ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP);
+        boolean binary = WireProtocol.isBinary(session);
+        st.sendLock.lock();
+        try {
+            long first = Math.max(fromSeq, st.log.firstSeq());
+            out.sendMessage(WireProtocol.message(binary, "RESUMED:" + first));
+            st.log.replay(first, (type, payload) -> out.sendMessage(frame(binary, type, payload)));
+            st.binary = binary;
+            st.out = out;
+        } catch (IOException | IllegalStateException ignored) {
+            // the new socket is already gone; stay detached until the grace period ends
+        } finally {
+            st.sendLock.unlock();
+        }
+    }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (IOException ignored) { }
-        });
+    // Report exit (with small delay to flush). After EOF on the PTY this returns almost immediately.
+    private void reportExit(SessionState st, int raw, boolean isWindows) throws InterruptedException {
+        st.alive.set(false);
+        Thread.sleep(30);
+
+        if (st.closed) return;
+
+        Integer exitToShow = st.reportedExitCode;
+        if (!isWindows) {
+            // Unix: the process *is* the exe, so raw is fine
+            exitToShow = (exitToShow == null) ? raw : exitToShow;
+        } else {
+            // Windows shell: prefer parsed __RC:...__, fallback to raw if not seen
+            if (exitToShow == null) exitToShow = raw;
+
+            // If we *didn’t* see Ctrl+C from client, treat 0xC000013A as a spurious control event and show 0
+            if (!st.sawCtrlC.get() && (exitToShow == -1073741510 || exitToShow == 0xC000013A)) {
+                exitToShow = 0;
+            }
+        }
+
+        sendText(st, "\r\n[process exited with code " + exitToShow + "]\r\n");
+        sendText(st, "[terminal idle – press Run to start again]\r\n");
+        if (st.binary) sendText(st, "END:" + exitToShow);
+    }
+
+    // The decorator serialises senders with a ReentrantLock (no carrier pinning) and buffers,
+    // within the session's byte and time limits, while another thread is mid-send.
+    private static void sendText(SessionState st, String text) {
+        byte type = WireProtocol.typeOfMessage(text);
+        emit(st, type, WireProtocol.payloadOfMessage(text, type));
     }
 
     /**
@@ -176,7 +455,7 @@ public class TerminalWebSocketHandler extends TextWebSocketHandler {
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         SessionState st = states.get(session.getId());
-        if (st == null) return;
+        if (st == null || st.pty == null) return; // not started yet (still queued)
 
         String data = message.getPayload();
 
@@ -200,11 +479,10 @@ public class TerminalWebSocketHandler extends TextWebSocketHandler {
         // Ctrl+C (0x03)
         if (data.length() == 1 && data.charAt(0) == 3) {
             st.sawCtrlC.set(true);
+            metrics.ctrlC();
             try { st.pty.destroy(); } catch (Exception ignored) {}
             st.alive.set(false);
-            if (session.isOpen()) {
-                session.sendMessage(new TextMessage("\r\n^C\r\n[process terminated]\r\n"));
-            }
+            sendText(st, "\r\n^C\r\n[process terminated]\r\n");
             return;
         }
 
@@ -222,11 +500,38 @@ public class TerminalWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         SessionState st = states.remove(session.getId());
-        if (st != null) {
-            try { st.stdin.close(); } catch (Exception ignored) {}
-            try { st.pty.destroy(); } catch (Exception ignored) {}
-            if (st.pumpTask != null) st.pumpTask.cancel(true);
-            st.alive.set(false);
+        if (st == null) return;
+        if (resumable(status) && running(st)) {
+            st.out = null;
+            detached.detach(st.token, st, this::stop);
+        } else {
+            stop(st);
+        }
+    }
+
+    private boolean resumable(CloseStatus status) {
+        return detached.enabled() && status.getCode() != CloseStatus.NORMAL.getCode();
+    }
+
+    // Queued for a slot, or the program has not exited yet.
+    private static boolean running(SessionState st) {
+        Future<?> task = st.pumpTask != null ? st.pumpTask : st.launchTask;
+        return task != null && !task.isDone();
+    }
+
+    private void stop(SessionState st) {
+        st.alive.set(false);
+        st.closed = true;
+        if (st.launchTask != null) st.launchTask.cancel(true);
+        try { if (st.stdin != null) st.stdin.close(); } catch (Exception ignored) {}
+        try { if (st.pty != null) st.pty.destroy(); } catch (Exception ignored) {}
+        if (st.pumpTask != null) st.pumpTask.cancel(true);
+        st.output.close();
+        st.sendLock.lock();
+        try {
+            if (st.log != null) st.log.close();
+        } finally {
+            st.sendLock.unlock();
         }
     }
 }
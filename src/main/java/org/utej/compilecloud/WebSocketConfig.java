@@ -1,25 +1,103 @@
 package org.utej.compilecloud;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.server.ServerEndpointConfig;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
     private final CompilerWebSocketHandler compilerWebSocketHandler;
+    private final boolean deflate;
 
     // Inject the simpler handler
-    public WebSocketConfig(CompilerWebSocketHandler compilerWebSocketHandler) {
+    public WebSocketConfig(CompilerWebSocketHandler compilerWebSocketHandler,
+                           @Value("${compilecloud.ws.permessage-deflate:true}") boolean deflate) {
         this.compilerWebSocketHandler = compilerWebSocketHandler;
+        this.deflate = deflate;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // Reverting endpoint to /terminal for the simple handler
         registry.addHandler(compilerWebSocketHandler, "/terminal")
+                .setHandshakeHandler(new DeflateHandshakeHandler(deflate))
                 .setAllowedOrigins("*");
     }
-}
\ No newline at end of file
+
+    /**
+     * Accepts permessage-deflate whenever the browser offers it (they all do), even if the
+     * container does not list it among its installed extensions; Tomcat implements it either way.
+     * With {@code compilecloud.ws.permessage-deflate=false} the client's extension offer is hidden
+     * from Tomcat too, since Tomcat negotiates its installed extensions itself when Spring selects none.
+     */
+    static final class DeflateHandshakeHandler extends DefaultHandshakeHandler {
+
+        private final boolean deflate;
+
+        DeflateHandshakeHandler(boolean deflate) {
+            super(deflate ? new StandardWebSocketUpgradeStrategy() : new WithoutExtensionsUpgradeStrategy());
+            this.deflate = deflate;
+        }
+
+        @Override
+        protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                     List<WebSocketExtension> requested,
+                                                                     List<WebSocketExtension> supported) {
+            List<WebSocketExtension> accepted = new ArrayList<>();
+            for (WebSocketExtension ext : requested) {
+                boolean isDeflate = ext.getName().equals(PERMESSAGE_DEFLATE);
+                if (isDeflate ? deflate : supported.contains(ext)) accepted.add(ext);
+            }
+            return accepted;
+        }
+    }
+
+    /** Upgrades as if the client offered no extensions; permessage-deflate is the only one Tomcat has. */
+    static final class WithoutExtensionsUpgradeStrategy extends StandardWebSocketUpgradeStrategy {
+
+        @Override
+        protected void upgradeHttpToWebSocket(HttpServletRequest request, HttpServletResponse response,
+                                              ServerEndpointConfig endpointConfig, Map<String, String> pathParams)
+                throws Exception {
+            super.upgradeHttpToWebSocket(new HttpServletRequestWrapper(request) {
+                @Override
+                public String getHeader(String name) {
+                    return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+                }
+
+                @Override
+                public Enumeration<String> getHeaders(String name) {
+                    return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+                }
+
+                @Override
+                public Enumeration<String> getHeaderNames() {
+                    List<String> names = Collections.list(super.getHeaderNames());
+                    names.removeIf(EXTENSIONS_HEADER::equalsIgnoreCase);
+                    return Collections.enumeration(names);
+                }
+            }, response, endpointConfig, pathParams);
+        }
+    }
+}
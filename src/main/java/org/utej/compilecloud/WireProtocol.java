@@ -0,0 +1,128 @@
+package org.utej.compilecloud;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Server-to-client framing, chosen per connection by WebSocket subprotocol.
+ * {@link #BINARY_V1} packs one or more records into each binary message, each record a 1-byte
+ * type, a 4-byte big-endian payload length and the payload (UTF-8, or raw PTY bytes for terminal
+ * output). Clients that ask for no subprotocol, or only {@link #TEXT}, get the original
+ * "TYPE:payload" text frames. Client-to-server messages are text in both.
+ *
+ * <p>EXIT carries what follows "END:" on the RUN: socket, or the exit code on the terminal.
+ * RESUME carries the connection's resume token and RESUMED the number of the first replayed
+ * record; these two are control records and are not numbered themselves.
+ */
+final class WireProtocol {
+
+    static final String TEXT = "compilecloud.text";
+    static final String BINARY_V1 = "compilecloud.bin.v1";
+
+    static final byte OUTPUT = 1;
+    static final byte STDERR = 2;
+    static final byte BUILD_LOG = 3;
+    static final byte STATUS = 4;
+    static final byte EXIT = 5;
+    static final byte QUEUED = 6;
+    static final byte ERROR = 7;
+    static final byte RESUME = 8;
+    static final byte RESUMED = 9;
+
+    static final int HEADER_BYTES = 5;
+
+    static final String STDERR_PREFIX = "OUTPUT: [Error] ";
+
+    private WireProtocol() {}
+
+    static List<String> subProtocols(boolean binary) {
+        return binary ? List.of(BINARY_V1, TEXT) : List.of(TEXT);
+    }
+
+    static boolean isBinary(WebSocketSession session) {
+        return BINARY_V1.equals(session.getAcceptedProtocol());
+    }
+
+    /** The record type for program output sent with a text-protocol prefix. */
+    static byte typeOfPrefix(String prefix) {
+        return prefix.equals(STDERR_PREFIX) ? STDERR : prefix.startsWith("OUTPUT:") ? OUTPUT : STATUS;
+    }
+
+    /** The record type of a text-protocol message ("BUILD_LOG: ...", "END:SUCCESS", ...). */
+    static byte typeOfMessage(String message) {
+        int colon = message.indexOf(':');
+        return colon < 0 ? STATUS : switch (message.substring(0, colon)) {
+            case "OUTPUT" -> OUTPUT;
+            case "BUILD_LOG" -> BUILD_LOG;
+            case "END" -> EXIT;
+            case "QUEUED" -> QUEUED;
+            case "ERROR" -> ERROR;
+            case "RESUME" -> RESUME;
+            case "RESUMED" -> RESUMED;
+            default -> STATUS;
+        };
+    }
+
+    /** The record payload of a text-protocol message of type {@code type}. */
+    static byte[] payloadOfMessage(String message, byte type) {
+        String payload = type == STATUS ? message : message.substring(message.indexOf(':') + 1);
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Appends a text-protocol message as one record. */
+    static void putMessage(ByteArrayOutputStream out, String message) {
+        byte type = typeOfMessage(message);
+        put(out, type, payloadOfMessage(message, type), 0, -1);
+    }
+
+    /** The text-protocol message for a record; the inverse of {@link #putMessage}. */
+    static String toText(byte type, byte[] payload) {
+        String text = new String(payload, StandardCharsets.UTF_8);
+        return switch (type) {
+            case OUTPUT -> "OUTPUT:" + text;
+            case STDERR -> STDERR_PREFIX + text;
+            case BUILD_LOG -> "BUILD_LOG:" + text;
+            case EXIT -> "END:" + text;
+            case QUEUED -> "QUEUED:" + text;
+            case ERROR -> "ERROR:" + text;
+            case RESUME -> "RESUME:" + text;
+            case RESUMED -> "RESUMED:" + text;
+            default -> text;
+        };
+    }
+
+    /** Appends one record; {@code len} of -1 means the rest of {@code payload}. */
+    static void put(ByteArrayOutputStream out, byte type, byte[] payload, int off, int len) {
+        int n = len < 0 ? payload.length - off : len;
+        out.write(type);
+        out.write(n >>> 24);
+        out.write(n >>> 16);
+        out.write(n >>> 8);
+        out.write(n);
+        out.write(payload, off, n);
+    }
+
+    static byte[] record(byte type, byte[] payload, int off, int len) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_BYTES + len);
+        put(out, type, payload, off, len);
+        return out.toByteArray();
+    }
+
+    /** A text-protocol message as it goes out on {@code session}'s protocol. */
+    static WebSocketMessage<?> message(WebSocketSession session, String message) {
+        return message(isBinary(session), message);
+    }
+
+    static WebSocketMessage<?> message(boolean binary, String message) {
+        if (!binary) return new TextMessage(message);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_BYTES + message.length());
+        putMessage(out, message);
+        return new BinaryMessage(out.toByteArray());
+    }
+}
@@ -0,0 +1,60 @@
+package org.utej.compilecloud;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compiles and runs RUN: jobs for the WebSocket front end. {@link EmbeddedWorker} does it in this
+ * JVM; {@link RemoteWorker} hands the job to a worker process over {@link WorkerProtocol}.
+ * {@link WorkerPool} picks one per run.
+ */
+public interface Worker {
+
+    /** Where a run's output goes; {@link SessionOutputWriter} on the front end. */
+    interface Sink {
+        /** Program output under a text-protocol prefix. Returns false once nobody is listening. */
+        boolean output(String prefix, CharSequence text) throws InterruptedException;
+
+        /** A whole protocol message (BUILD_LOG:, QUEUED:, END:, ...). */
+        void send(String message);
+    }
+
+    /** One started run. Input problems are reported to the run's sink, not to the caller. */
+    interface Run {
+        void input(byte[] data);
+
+        /** Streams {@code file} into the program's stdin after any earlier input. */
+        void inputFile(Path file);
+
+        /** Closes the program's stdin once queued input is written. */
+        void eof();
+
+        /** Stops the run; {@link #done()} completes shortly after. */
+        void cancel();
+
+        /** Completes when the run has ended and sent its last message. */
+        CompletableFuture<Void> done();
+    }
+
+    String id();
+
+    /** Runs accepted and not yet finished, queued ones included. */
+    int active();
+
+    /** Runs it can execute at once. */
+    int slots();
+
+    default double load() {
+        return (double) active() / Math.max(1, slots());
+    }
+
+    boolean healthy();
+
+    /**
+     * Compiles {@code source} and runs it, reporting to {@code sink}.
+     *
+     * @throws IOException if the worker cannot be reached
+     */
+    Run start(String owner, String source, Sink sink) throws IOException;
+}
@@ -0,0 +1,29 @@
+package org.utej.compilecloud;
+
+import org.springframework.boot.SpringApplication;
+
+import java.util.Map;
+
+/**
+ * Starts this application as a worker: {@link WorkerServer} listens on
+ * compilecloud.worker.listen-port (7101 by default) and the web server takes a random port unless
+ * server.port is given. From the packaged jar:
+ * <pre>
+ * java -cp app.jar -Dloader.main=org.utej.compilecloud.WorkerMain \
+ *      org.springframework.boot.loader.launch.PropertiesLauncher \
+ *      --compilecloud.worker.listen-port=7101 --compilecloud.worker.bind-address=0.0.0.0
+ * </pre>
+ * Front ends then list it in compilecloud.workers.remote=host:7101.
+ */
+public final class WorkerMain {
+
+    private WorkerMain() {}
+
+    public static void main(String[] args) {
+        SpringApplication app = new SpringApplication(CompileCloudApplication.class);
+        app.setDefaultProperties(Map.of(
+                "compilecloud.worker.listen-port", "7101",
+                "server.port", "0"));
+        app.run(args);
+    }
+}
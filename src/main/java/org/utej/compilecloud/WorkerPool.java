@@ -0,0 +1,98 @@
+package org.utej.compilecloud;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The workers RUN: jobs can go to: this process's {@link EmbeddedWorker} (unless
+ * compilecloud.workers.embedded is false) and the worker processes listed in
+ * compilecloud.workers.remote. Each run goes to the healthy worker with the lowest load, trying
+ * the next one if it cannot be reached; on a tie the embedded worker wins. Remote workers are
+ * pinged every health-interval-ms and skipped while they do not answer.
+ */
+@Component
+public class WorkerPool {
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final List<RemoteWorker> remotes = new ArrayList<>();
+    private final ExecutorService executor;
+
+    @Autowired
+    public WorkerPool(EmbeddedWorker embedded,
+                      PipelineMetrics metrics,
+                      @Qualifier("ioExecutor") ExecutorService executor,
+                      @Value("${compilecloud.workers.embedded:true}") boolean useEmbedded,
+                      @Value("${compilecloud.workers.remote:}") String remote,
+                      @Value("${compilecloud.workers.timeout-ms:1000}") int timeoutMillis) {
+        this.executor = executor;
+        if (useEmbedded) workers.add(embedded);
+        for (String address : remote.split(",")) {
+            if (address.isBlank()) continue;
+            RemoteWorker worker = new RemoteWorker(address.trim(), executor, timeoutMillis);
+            remotes.add(worker);
+            workers.add(worker);
+        }
+        if (workers.isEmpty()) throw new IllegalStateException("No workers: enable compilecloud.workers.embedded or list compilecloud.workers.remote");
+        metrics.gauge("compilecloud.workers.healthy", "Workers accepting runs",
+                () -> workers.stream().filter(Worker::healthy).count());
+        for (Worker worker : workers) {
+            metrics.gauge("compilecloud.workers.load", "Active runs per execute slot", worker::load, "worker", worker.id());
+        }
+    }
+
+    /** Package-private for tests. */
+    WorkerPool(List<Worker> workers, ExecutorService executor) {
+        this.workers.addAll(workers);
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a run on the least-loaded healthy worker.
+     *
+     * @throws IOException if no healthy worker could take it
+     */
+    public Worker.Run start(String owner, String source, Worker.Sink sink) throws IOException {
+        IOException last = null;
+        for (Worker worker : candidates()) {
+            try {
+                return worker.start(owner, source, sink);
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last != null ? last : new IOException("No healthy workers");
+    }
+
+    List<Worker> candidates() {
+        List<Worker> healthy = new ArrayList<>();
+        for (Worker worker : workers) {
+            if (worker.healthy()) healthy.add(worker);
+        }
+        healthy.sort(Comparator.comparingDouble(Worker::load)); // stable, so ties keep list order
+        return healthy;
+    }
+
+    @Scheduled(fixedDelayString = "${compilecloud.workers.health-interval-ms:5000}")
+    public void checkHealth() {
+        for (RemoteWorker worker : remotes) executor.submit(worker::check);
+    }
+
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Worker worker : workers) {
+            stats.add(Map.of(
+                    "id", worker.id(),
+                    "healthy", worker.healthy(),
+                    "active", worker.active(),
+                    "slots", worker.slots()));
+        }
+        return stats;
+    }
+}
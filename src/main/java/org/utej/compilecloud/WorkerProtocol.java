@@ -0,0 +1,89 @@
+package org.utej.compilecloud;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Front end to worker framing over TCP: 1-byte type, 4-byte big-endian payload length, payload.
+ * A connection carries a single exchange. For a run, the first frame is RUN ("owner\nsource"),
+ * followed by any INPUT, INPUT_FILE, EOF or CANCEL frames. The worker answers with OUTPUT,
+ * STDERR and MESSAGE frames (a whole text-protocol message), then DONE, and closes the
+ * connection. For a health check the front end sends PING and the worker answers
+ * PONG "&lt;active runs&gt; &lt;execute slots&gt;".
+ * Closing the connection early cancels the run.
+ */
+final class WorkerProtocol {
+
+    // front end -> worker
+    static final byte RUN = 1;
+    static final byte INPUT = 2;
+    static final byte INPUT_FILE = 3;
+    static final byte EOF = 4;
+    static final byte CANCEL = 5;
+    static final byte PING = 6;
+
+    // worker -> front end
+    static final byte OUTPUT = 16;
+    static final byte STDERR = 17;
+    static final byte MESSAGE = 18;
+    static final byte PONG = 19;
+    static final byte DONE = 20;
+
+    static final int HEADER_BYTES = 5;
+    static final int MAX_FRAME_BYTES = 128 * 1024 * 1024;
+
+    record Frame(byte type, byte[] payload) {
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private WorkerProtocol() {}
+
+    static void write(OutputStream out, byte type, byte[] payload) throws IOException {
+        writeHeader(out, type, payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    static void write(OutputStream out, byte type, String payload) throws IOException {
+        write(out, type, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void writeHeader(OutputStream out, byte type, int length) throws IOException {
+        byte[] header = { type, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length };
+        out.write(header);
+    }
+
+    /** The length of the next frame of {@code in} after its type; the caller reads the payload. */
+    static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) throw new IOException("Bad frame length " + length);
+        return length;
+    }
+
+    /** The next frame, or null at end of stream. */
+    static Frame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        byte[] payload = new byte[readLength(in)];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        return new Frame((byte) type, payload);
+    }
+
+    /** The frame type for output sent under a text-protocol prefix, and back. */
+    static byte typeOfPrefix(String prefix) {
+        return WireProtocol.typeOfPrefix(prefix) == WireProtocol.STDERR ? STDERR : OUTPUT;
+    }
+
+    static String prefixOf(byte type) {
+        return type == STDERR ? WireProtocol.STDERR_PREFIX : "OUTPUT:";
+    }
+}
@@ -0,0 +1,200 @@
+package org.utej.compilecloud;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker mode: accepts runs from front ends over {@link WorkerProtocol} and executes them with
+ * this process's {@link Worker} (the {@link EmbeddedWorker}), under its own scheduler and sandbox.
+ * Off unless compilecloud.worker.listen-port is set; {@link WorkerMain} starts a process with it on.
+ * The protocol has no authentication, so the port belongs on a private network only.
+ */
+@Component
+public class WorkerServer {
+
+    private final Worker worker;
+    private final WorkspaceManager workspaces;
+    private final ExecutorService executor;
+    private final int listenPort;
+    private final String bindAddress;
+    private volatile ServerSocket server;
+
+    public WorkerServer(Worker worker,
+                        WorkspaceManager workspaces,
+                        @Qualifier("ioExecutor") ExecutorService executor,
+                        @Value("${compilecloud.worker.listen-port:0}") int listenPort,
+                        @Value("${compilecloud.worker.bind-address:127.0.0.1}") String bindAddress) {
+        this.worker = worker;
+        this.workspaces = workspaces;
+        this.executor = executor;
+        this.listenPort = listenPort;
+        this.bindAddress = bindAddress;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws IOException {
+        if (listenPort > 0) listen(listenPort);
+    }
+
+    /** Starts accepting on {@code port} (0 for any free port) and returns the bound port. */
+    int listen(int port) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+        server = socket;
+        Thread.ofPlatform().name("worker-accept").daemon(true).start(this::accept);
+        return socket.getLocalPort();
+    }
+
+    @PreDestroy
+    public void stop() {
+        ServerSocket socket = server;
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) { }
+    }
+
+    private void accept() {
+        ServerSocket socket = server;
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                executor.submit(() -> serve(connection));
+            } catch (IOException e) {
+                // closed by stop(), or a connection that failed before it was accepted
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Worker.Run run = null;
+        List<Path> uploads = new CopyOnWriteArrayList<>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            FrameSink sink = new FrameSink(new BufferedOutputStream(socket.getOutputStream()));
+            WorkerProtocol.Frame first = WorkerProtocol.read(in);
+            if (first == null) return;
+            if (first.type() == WorkerProtocol.PING) {
+                sink.write(WorkerProtocol.PONG, worker.active() + " " + worker.slots());
+                return;
+            }
+            if (first.type() != WorkerProtocol.RUN) return;
+
+            String body = first.text();
+            int newline = body.indexOf('\n');
+            if (newline < 0) return;
+            run = worker.start(body.substring(0, newline), body.substring(newline + 1), sink);
+            run.done().whenComplete((ignored, error) -> {
+                sink.write(WorkerProtocol.DONE, "");
+                closeQuietly(socket);
+                for (Path upload : uploads) deleteQuietly(upload);
+            });
+
+            for (int type; (type = in.read()) >= 0; ) {
+                int length = WorkerProtocol.readLength(in);
+                switch ((byte) type) {
+                    case WorkerProtocol.INPUT -> run.input(in.readNBytes(length));
+                    case WorkerProtocol.INPUT_FILE -> {
+                        Path upload = workspaces.input("worker-" + UUID.randomUUID());
+                        uploads.add(upload);
+                        try (OutputStream file = Files.newOutputStream(upload)) {
+                            copy(in, file, length);
+                        }
+                        run.inputFile(upload);
+                    }
+                    case WorkerProtocol.EOF -> {
+                        in.skipNBytes(length);
+                        run.eof();
+                    }
+                    case WorkerProtocol.CANCEL -> {
+                        in.skipNBytes(length);
+                        run.cancel();
+                    }
+                    default -> in.skipNBytes(length);
+                }
+            }
+        } catch (IOException e) {
+            // the front end went away
+        } finally {
+            // A closed connection cancels the run; once it is done, closing the socket is the only cleanup.
+            if (run != null) run.cancel();
+            else closeQuietly(socket);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, int length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        for (int left = length; left > 0; ) {
+            int n = in.read(buffer, 0, Math.min(buffer.length, left));
+            if (n < 0) throw new EOFException("Input file cut short");
+            out.write(buffer, 0, n);
+            left -= n;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) { }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) { }
+    }
+
+    /** Sends a run's output back as frames; once the front end is gone, output reports false and the run is killed. */
+    private static final class FrameSink implements Worker.Sink {
+        private final OutputStream out;
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean broken;
+
+        FrameSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public boolean output(String prefix, CharSequence text) {
+            return write(WorkerProtocol.typeOfPrefix(prefix), text.toString());
+        }
+
+        @Override
+        public void send(String message) {
+            write(WorkerProtocol.MESSAGE, message);
+        }
+
+        boolean write(byte type, String payload) {
+            lock.lock();
+            try {
+                if (broken) return false;
+                WorkerProtocol.write(out, type, payload.getBytes(StandardCharsets.UTF_8));
+                return true;
+            } catch (IOException e) {
+                broken = true;
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.utej.compilecloud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Scratch directories for builds and runs.
+ * In memory mode the root defaults to tmpfs (/dev/shm) and gcc reads source from stdin, so a job
+ * never touches a real disk; a default root that cannot execute binaries is skipped. Every
+ * workspace is deleted when closed; a background reaper removes directories orphaned by a crash
+ * and REST-compiled artifacts nobody has built or run for a while: resolving an artifact's path
+ * refreshes its modification time, which is what the reaper goes by.
+ */
+@Component
+public class WorkspaceManager {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkspaceManager.class);
+
+    public enum Mode { MEMORY, DISK }
+
+    private static final String JOBS = "jobs";
+    private static final String ARTIFACTS = "artifacts";
+    private static final String SCROLLBACK = "scrollback";
+    private static final String INPUTS = "inputs";
+
+    private final Mode mode;
+    private final Path root;
+    private final Duration orphanTtl;
+    private final Duration artifactTtl;
+    private final Set<Path> active = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong workspacesOpened = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong reaped = new AtomicLong();
+    private volatile long lastWorkspaceBytes;
+
+    public WorkspaceManager(@Value("${compilecloud.workspace.mode:memory}") String mode,
+                            @Value("${compilecloud.workspace.root:}") String root,
+                            @Value("${compilecloud.workspace.orphan-ttl-seconds:600}") long orphanTtlSeconds,
+                            @Value("${compilecloud.workspace.artifact-ttl-seconds:3600}") long artifactTtlSeconds)
+            throws IOException {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+        this.root = (root.isBlank() ? defaultRoot(this.mode) : Paths.get(root)).toAbsolutePath();
+        this.orphanTtl = Duration.ofSeconds(orphanTtlSeconds);
+        this.artifactTtl = Duration.ofSeconds(artifactTtlSeconds);
+        Files.createDirectories(this.root.resolve(JOBS));
+        Files.createDirectories(this.root.resolve(ARTIFACTS));
+        Files.createDirectories(this.root.resolve(SCROLLBACK));
+        Files.createDirectories(this.root.resolve(INPUTS));
+    }
+
+    /** A fresh, empty directory owned by the caller until {@link Workspace#close()}. */
+    public Workspace open(String owner) throws IOException {
+        String name = owner.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + UUID.randomUUID().toString().substring(0, 8);
+        Path dir = Files.createDirectory(root.resolve(JOBS).resolve(name));
+        active.add(dir);
+        workspacesOpened.incrementAndGet();
+        return new Workspace(dir);
+    }
+
+    /** Where a REST-compiled binary lives; looking it up keeps an existing one from being reaped. */
+    public Path artifact(String fileName) {
+        Path artifact = root.resolve(ARTIFACTS).resolve(Paths.get(fileName).getFileName());
+        try {
+            Files.setLastModifiedTime(artifact, FileTime.from(Instant.now()));
+        } catch (IOException ignored) {
+            // not built yet
+        }
+        return artifact;
+    }
+
+    /** Where an uploaded stdin file lives until a run reads it or it is reaped. */
+    public Path input(String name) {
+        return root.resolve(INPUTS).resolve(Paths.get(name).getFileName());
+    }
+
+    /** Where session scrollback spills once it outgrows its heap buffer. */
+    public Path scrollbackDir() {
+        return root.resolve(SCROLLBACK);
+    }
+
+    /** In memory mode gcc is fed source on stdin instead of from a file. */
+    public boolean compileFromStdin() {
+        return mode == Mode.MEMORY;
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+                "mode", mode.name(),
+                "root", root.toString(),
+                "active", active.size(),
+                "opened", workspacesOpened.get(),
+                "bytesWritten", bytesWritten.get(),
+                "lastWorkspaceBytes", lastWorkspaceBytes,
+                "reaped", reaped.get());
+    }
+
+    @Scheduled(fixedDelayString = "${compilecloud.workspace.reap-interval-ms:60000}")
+    public void reap() {
+        reapOlderThan(root.resolve(JOBS), orphanTtl, true);
+        reapOlderThan(root.resolve(ARTIFACTS), artifactTtl, false);
+        reapOlderThan(root.resolve(SCROLLBACK), orphanTtl, false);
+        reapOlderThan(root.resolve(INPUTS), artifactTtl, false);
+    }
+
+    private void reapOlderThan(Path dir, Duration ttl, boolean skipActive) {
+        FileTime cutoff = FileTime.from(Instant.now().minus(ttl));
+        try (Stream<Path> children = Files.list(dir)) {
+            for (Path p : children.toList()) {
+                if (skipActive && active.contains(p)) continue;
+                try {
+                    if (Files.getLastModifiedTime(p).compareTo(cutoff) < 0) {
+                        deleteRecursively(p);
+                        reaped.incrementAndGet();
+                    }
+                } catch (IOException ignored) { }
+            }
+        } catch (IOException ignored) { }
+    }
+
+    // tmpfs is often mounted noexec (Docker's /dev/shm, hardened hosts), and binaries run from the
+    // workspace, so each candidate must pass an exec probe; ./workspaces is the last resort.
+    private static Path defaultRoot(Mode mode) {
+        List<Path> candidates = new ArrayList<>();
+        if (mode == Mode.MEMORY) {
+            Path shm = Paths.get("/dev/shm");
+            if (Files.isDirectory(shm) && Files.isWritable(shm)) candidates.add(shm.resolve("compilecloud"));
+            candidates.add(Paths.get(System.getProperty("java.io.tmpdir"), "compilecloud"));
+        }
+        Path fallback = Paths.get(System.getProperty("user.dir"), "workspaces");
+        for (Path candidate : candidates) {
+            if (allowsExec(candidate)) return candidate;
+            log.warn("Workspace root {} does not allow executing binaries; trying the next one", candidate);
+        }
+        return fallback;
+    }
+
+    /** True if a program written under {@code dir} can be executed (always true on Windows). */
+    static boolean allowsExec(Path dir) {
+        if (System.getProperty("os.name").toLowerCase().contains("win")) return true;
+        Path probe = null;
+        try {
+            Files.createDirectories(dir);
+            probe = Files.createTempFile(dir, "exec-probe-", ".sh");
+            Files.writeString(probe, "#!/bin/sh\nexit 0\n");
+            if (!probe.toFile().setExecutable(true)) return false;
+            Process p = new ProcessBuilder(probe.toString()).redirectErrorStream(true).start();
+            p.getInputStream().transferTo(OutputStream.nullOutputStream());
+            return p.waitFor(5, TimeUnit.SECONDS) && p.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (probe != null) {
+                try {
+                    Files.deleteIfExists(probe);
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    static void deleteRecursively(Path p) throws IOException {
+        if (!Files.exists(p, LinkOption.NOFOLLOW_LINKS)) return;
+        try (Stream<Path> walk = Files.walk(p)) {
+            for (Path q : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(q);
+            }
+        }
+    }
+
+    public final class Workspace implements AutoCloseable {
+        private final Path dir;
+        private long written;
+
+        private Workspace(Path dir) {
+            this.dir = dir;
+        }
+
+        public Path dir() {
+            return dir;
+        }
+
+        public Path resolve(String name) {
+            return dir.resolve(name);
+        }
+
+        /** Accounts for a file this job wrote into the workspace. */
+        public void recordWrite(Path file) {
+            try {
+                long size = Files.size(file);
+                written += size;
+                bytesWritten.addAndGet(size);
+            } catch (IOException ignored) { }
+        }
+
+        public long bytesWritten() {
+            return written;
+        }
+
+        @Override
+        public void close() {
+            lastWorkspaceBytes = written;
+            try {
+                deleteRecursively(dir);
+            } catch (IOException ignored) {
+                // left for the reaper
+            } finally {
+                active.remove(dir);
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ const codeArea = document.getElementById('codeArea');
 const outputBox = document.getElementById('outputBox'); // Build Log
 const programOutput = document.getElementById('programOutput'); // Program Output
 const terminalInput = document.getElementById('terminalInput'); // Input Box
+const inputFile = document.getElementById('inputFile'); // Bulk stdin upload
 const sessionStatus = document.getElementById('sessionStatus');
 // Removed: const backendUrl = document.getElementById('backendUrl').textContent;
 
@@ -29,10 +30,28 @@ const DYNAMIC_BACKEND_URL = `${wsProtocol}//${host}${port}/terminal`;
 // ------------------------------------
 // ------------------------------------
 
+// --- WIRE PROTOCOL ---
+// 'compilecloud.bin.v1' packs records of [1-byte type][4-byte big-endian length][payload] into binary
+// messages; servers that don't know it answer with the old "TYPE:payload" text frames.
+const BINARY_PROTOCOL = 'compilecloud.bin.v1';
+const TEXT_PROTOCOL = 'compilecloud.text';
+const RECORD_TYPES = { 1: 'OUTPUT', 2: 'STDERR', 3: 'BUILD_LOG', 4: 'STATUS', 5: 'END', 6: 'QUEUED', 7: 'ERROR', 8: 'RESUME', 9: 'RESUMED' };
+// The server numbers every record it sends except RESUME/RESUMED. After a dropped connection we
+// reconnect with the resume token and the count we saw, and it replays the rest of the run.
+const RESUME_ATTEMPTS = 5;
+
 // --- STATE VARIABLES ---
 let ws = null;
 let isProcessRunning = false;
 let isConnected = false;
+let resumeToken = null;
+let recordsSeen = 0;
+let resuming = false;
+let resumeAttempt = 0;
+// Output can split a multi-byte character across records, so each stream keeps its own decoder.
+let stdoutDecoder = new TextDecoder();
+let stderrDecoder = new TextDecoder();
+const textDecoder = new TextDecoder();
 
 // --- UTILITIES ---
 function updateButtons(connect, run, stop) {
@@ -40,6 +59,7 @@ function updateButtons(connect, run, stop) {
     runBtn.disabled = !run || !isConnected;
     stopBtn.disabled = !stop;
     terminalInput.disabled = !stop; // Input is enabled only when a process is running
+    inputFile.disabled = !stop;
 }
 
 function updateStatus(status, className, text) {
@@ -62,15 +82,29 @@ function appendProgramOutput(data) {
 
 // --- WEBSOCKET CONNECTION AND HANDLERS ---
 function connectSession() {
-    if (ws) ws.close();
+    if (ws) ws.close(1000);
 
     updateStatus('status-warn', 'Connecting...', 'Connecting...');
     outputBox.textContent = 'Attempting connection to backend...';
     programOutput.textContent = 'Attempting connection...';
+    resuming = false;
+    resumeToken = null;
+    openSocket(DYNAMIC_BACKEND_URL);
+}
+
+// Picks up a running program after the connection dropped.
+function resumeSession() {
+    resuming = true;
+    resumeAttempt++;
+    updateStatus('status-warn', 'Reconnecting...', `Reconnecting (attempt ${resumeAttempt})...`);
+    openSocket(`${DYNAMIC_BACKEND_URL}?resume=${encodeURIComponent(resumeToken)}&offset=${recordsSeen}`);
+}
 
+function openSocket(url) {
     try {
         // *** USE THE DYNAMICALLY CONSTRUCTED URL HERE ***
-        ws = new WebSocket(DYNAMIC_BACKEND_URL);
+        ws = new WebSocket(url, [BINARY_PROTOCOL, TEXT_PROTOCOL]);
+        ws.binaryType = 'arraybuffer';
     } catch (e) {
         outputBox.textContent += `\nERROR: Invalid WebSocket URL: ${e.message}`;
         return;
@@ -78,6 +112,7 @@ function connectSession() {
 
     ws.onopen = () => {
         isConnected = true;
+        if (resuming) return; // the server answers with RESUMED, or RESUME if the run is gone
         updateStatus('status-ok', 'Connected (Idle)', 'Connected (Idle)');
         outputBox.textContent = 'WebSocket connection established. Ready to compile and run code.';
         programOutput.textContent = 'Session ready. Click RUN to execute code.';
@@ -85,39 +120,27 @@ function connectSession() {
     };
 
     ws.onmessage = (event) => {
+        if (event.data instanceof ArrayBuffer) {
+            handleRecords(event.data);
+            return;
+        }
         const message = event.data;
         const colonIndex = message.indexOf(':');
 
         if (colonIndex === -1) return;
 
-        const type = message.substring(0, colonIndex);
-        const content = message.substring(colonIndex + 1);
-
-        switch (type) {
-            case 'BUILD_LOG':
-                outputBox.textContent += content + '\n';
-                break;
-            case 'OUTPUT':
-                appendProgramOutput(content);
-                break;
-            case 'END':
-                isProcessRunning = false;
-                updateStatus('status-ok', 'Connected (Idle)', 'Connected (Idle)');
-                updateButtons(true, true, false);
-                break;
-            case 'ERROR':
-                outputBox.textContent += `\n[ERROR] ${content}`;
-                updateStatus('status-err', 'Error', 'Error');
-                isProcessRunning = false;
-                updateButtons(true, true, false);
-                break;
-        }
-        outputBox.scrollTop = outputBox.scrollHeight;
+        handleMessage(message.substring(0, colonIndex), message.substring(colonIndex + 1));
     };
 
-    ws.onclose = () => {
+    ws.onclose = (event) => {
         isConnected = false;
+        if (isProcessRunning && resumeToken && event.code !== 1000 && resumeAttempt < RESUME_ATTEMPTS) {
+            setTimeout(resumeSession, 500 * 2 ** resumeAttempt);
+            return;
+        }
         isProcessRunning = false;
+        resuming = false;
+        resumeAttempt = 0;
         updateStatus('status-err', 'Disconnected', 'Disconnected');
         outputBox.textContent += '\n\nWebSocket connection closed.';
         programOutput.textContent += '\n[Session Closed]';
@@ -131,6 +154,82 @@ function connectSession() {
 }
 
 
+function handleRecords(buffer) {
+    const view = new DataView(buffer);
+    let offset = 0;
+    while (offset + 5 <= buffer.byteLength) {
+        const type = RECORD_TYPES[view.getUint8(offset)];
+        const length = view.getUint32(offset + 1);
+        const payload = new Uint8Array(buffer, offset + 5, length);
+        offset += 5 + length;
+
+        if (type === 'OUTPUT') {
+            handleMessage('OUTPUT', stdoutDecoder.decode(payload, { stream: true }));
+        } else if (type === 'STDERR') {
+            handleMessage('OUTPUT', ' [Error] ' + stderrDecoder.decode(payload, { stream: true }));
+        } else if (type) {
+            handleMessage(type, textDecoder.decode(payload));
+        }
+    }
+}
+
+function handleMessage(type, content) {
+    if (type === 'RESUME') {
+        if (resuming) {
+            // The run ended or expired while we were away; this is a fresh session.
+            appendProgramOutput('\n[Connection lost: the program did not survive the disconnect]\n');
+            isProcessRunning = false;
+            resuming = false;
+            resumeAttempt = 0;
+            updateStatus('status-ok', 'Connected (Idle)', 'Connected (Idle)');
+            updateButtons(true, true, false);
+        }
+        resumeToken = content;
+        recordsSeen = 0;
+        return;
+    }
+    if (type === 'RESUMED') {
+        const first = parseInt(content, 10);
+        if (first > recordsSeen) {
+            appendProgramOutput(`\n[... ${first - recordsSeen} messages lost while disconnected ...]\n`);
+            stdoutDecoder = new TextDecoder();
+            stderrDecoder = new TextDecoder();
+        }
+        recordsSeen = first;
+        resuming = false;
+        resumeAttempt = 0;
+        updateStatus('status-warn', 'Running...', 'Running...');
+        updateButtons(false, false, true);
+        return;
+    }
+    recordsSeen++;
+    switch (type) {
+        case 'BUILD_LOG':
+            outputBox.textContent += content + '\n';
+            if (isProcessRunning) updateStatus('status-warn', 'Running...', 'Running...');
+            break;
+        case 'QUEUED':
+            updateStatus('status-warn', 'Queued', `Queued (position ${content})`);
+            break;
+        case 'OUTPUT':
+        case 'STATUS':
+            appendProgramOutput(content);
+            break;
+        case 'END':
+            isProcessRunning = false;
+            updateStatus('status-ok', 'Connected (Idle)', 'Connected (Idle)');
+            updateButtons(true, true, false);
+            break;
+        case 'ERROR':
+            outputBox.textContent += `\n[ERROR] ${content}`;
+            updateStatus('status-err', 'Error', 'Error');
+            isProcessRunning = false;
+            updateButtons(true, true, false);
+            break;
+    }
+    outputBox.scrollTop = outputBox.scrollHeight;
+}
+
 // --- EVENT HANDLERS ---
 connectBtn.onclick = connectSession;
 
@@ -138,6 +237,8 @@ runBtn.onclick = () => {
     if (ws && ws.readyState === WebSocket.OPEN && !isProcessRunning) {
         outputBox.textContent = '';
         programOutput.textContent = '';
+        stdoutDecoder = new TextDecoder();
+        stderrDecoder = new TextDecoder();
 
         const code = codeArea.value;
         ws.send(`RUN:${code}`);
@@ -150,7 +251,7 @@ runBtn.onclick = () => {
 
 stopBtn.onclick = () => {
     if (ws && ws.readyState === WebSocket.OPEN && isProcessRunning) {
-        ws.close();
+        ws.close(1000); // a normal close ends the run; anything else lets the server keep it for a resume
         updateStatus('status-err', 'Stopping...', 'Stopping...');
         updateButtons(false, false, false);
         setTimeout(connectSession, 500);
@@ -158,6 +259,15 @@ stopBtn.onclick = () => {
 };
 
 terminalInput.addEventListener('keydown', (e) => {
+    if (e.ctrlKey && e.key === 'd') {
+        // Ctrl+D: close the program's stdin so it reads end-of-file
+        e.preventDefault();
+        if (ws && ws.readyState === WebSocket.OPEN && isProcessRunning) {
+            ws.send('INPUT_EOF');
+            appendProgramOutput('\n[EOF Sent]\n');
+        }
+        return;
+    }
     if (e.key === 'Enter') {
         e.preventDefault();
         if (ws && ws.readyState === WebSocket.OPEN && isProcessRunning) {
@@ -171,6 +281,23 @@ terminalInput.addEventListener('keydown', (e) => {
     }
 });
 
+// Large inputs go up over HTTP once and the server streams the file into stdin,
+// instead of one INPUT: message per line.
+inputFile.addEventListener('change', async () => {
+    const file = inputFile.files[0];
+    inputFile.value = '';
+    if (!file || !ws || ws.readyState !== WebSocket.OPEN || !isProcessRunning) return;
+    try {
+        const response = await fetch('/api/files/input', { method: 'POST', body: file });
+        const result = await response.json();
+        if (result.status !== 'ok') throw new Error(result.msg);
+        ws.send(`INPUT_FILE:${result.inputId}`);
+        appendProgramOutput(`\n[Input File Sent: ${file.name}, ${result.bytes} bytes]\n`);
+    } catch (err) {
+        outputBox.textContent += `\n[System] Input upload failed: ${err.message}`;
+    }
+});
+
 // --- INITIALIZATION ---
 window.onload = () => {
     updateButtons(true, false, false);
@@ -0,0 +1,57 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompileCacheTests {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void keyDependsOnSourceFlagsAndCompiler() {
+        byte[] src = "int main(){}".getBytes();
+        String base = CompileCache.key(src, List.of("-O2"), "gcc 13");
+        assertEquals(base, CompileCache.key(src, List.of("-O2"), "gcc 13"));
+        assertNotEquals(base, CompileCache.key(src, List.of("-O0"), "gcc 13"));
+        assertNotEquals(base, CompileCache.key(src, List.of("-O2"), "gcc 14"));
+        assertNotEquals(base, CompileCache.key("int main(){ }".getBytes(), List.of("-O2"), "gcc 13"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPastBudget() throws Exception {
+        CompileCache cache = new CompileCache(tmp.resolve("cache").toString(), 250);
+        cache.put("a", binary(100), "");
+        cache.put("b", binary(100), "");
+        assertNotNull(cache.copyTo("a", tmp.resolve("run"))); // touch a, so b is eldest
+        cache.put("c", binary(100), "");
+
+        assertNotNull(cache.copyTo("a", tmp.resolve("run")));
+        assertNull(cache.copyTo("b", tmp.resolve("run")));
+        assertNotNull(cache.copyTo("c", tmp.resolve("run")));
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertEquals(3L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void reloadsIndexFromDisk() throws Exception {
+        CompileCache first = new CompileCache(tmp.resolve("cache").toString(), 1024);
+        first.put("k", binary(10), "warning: unused");
+
+        CompileCache second = new CompileCache(tmp.resolve("cache").toString(), 1024);
+        assertEquals("warning: unused", second.copyTo("k", tmp.resolve("run")));
+    }
+
+    private Path binary(int size) throws Exception {
+        Path p = Files.createTempFile(tmp, "bin", ".out");
+        Files.write(p, new byte[size]);
+        return p;
+    }
+}
@@ -0,0 +1,120 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Apart from the failing-compiler case, jobs here are for sources already built, so they finish without gcc.
+class CompileJobServiceTests {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void finishedJobsAreEvictedOldestFirst() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        SourceStore.Version src = built(store);
+        Path exe = Files.createFile(dir.resolve("a.out"));
+        CompileJobService jobs = new CompileJobService(null, store, null, executor, 2);
+
+        CompileJobService.Job first = jobs.submit(src, exe);
+        CompileJobService.Job second = jobs.submit(src, exe);
+        assertEquals("unchanged", first.result().get(10, TimeUnit.SECONDS).get("tier"));
+        second.result().get(10, TimeUnit.SECONDS);
+
+        CompileJobService.Job third = jobs.submit(src, exe);
+        assertNull(jobs.get(first.id()));
+        assertSame(second, jobs.get(second.id()));
+        assertSame(third, jobs.get(third.id()));
+        assertEquals("DONE", second.snapshot().get("state"));
+    }
+
+    @Test
+    void rejectsWhenFullOfUnfinishedJobs() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        SourceStore.Version src = built(store);
+        Path exe = Files.createFile(dir.resolve("a.out"));
+        CompileJobService jobs = new CompileJobService(null, store, null, executor, 2);
+
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CompileJobService.Job first = jobs.submit(src, exe);
+        CompileJobService.Job second = jobs.submit(src, exe);
+        assertEquals("QUEUED", first.snapshot().get("state"));
+        assertThrows(RejectedExecutionException.class, () -> jobs.submit(src, exe));
+
+        release.countDown();
+        Map<String, String> result = first.result().get(10, TimeUnit.SECONDS);
+        assertEquals("ok", result.get("status"));
+        second.result().get(10, TimeUnit.SECONDS);
+        assertNotNull(jobs.submit(src, exe));
+        assertNull(jobs.get(first.id()));
+    }
+
+    @Test
+    void compilerExceptionFinishesTheJobWithAnError() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        String name = store.create("a.c").fileName();
+        SourceStore.Version src = store.save(name, "int main(){return 0;}", null).version();
+        CompileService failing = new CompileService(null, null, null, null, null, null, false, "", "gcc -O2") {
+            @Override
+            public Result compileTiered(String source, Path target, long timeout, TimeUnit unit) {
+                throw new UncheckedIOException(new IOException("cache unreadable"));
+            }
+        };
+        JobScheduler scheduler = new JobScheduler(1, 1, 4, new PipelineMetrics(new SimpleMeterRegistry()));
+        CompileJobService jobs = new CompileJobService(failing, store, scheduler, executor, 2);
+
+        CompileJobService.Job job = jobs.submit(src, dir.resolve("a"));
+        Map<String, String> result = job.result().get(10, TimeUnit.SECONDS);
+        assertEquals("error", result.get("status"));
+        assertTrue(result.get("msg").contains("cache unreadable"));
+        assertEquals("DONE", job.snapshot().get("state"));
+        assertEquals(0, scheduler.running(JobScheduler.Lane.COMPILE));
+    }
+
+    @Test
+    void jobRefusedByTheExecutorIsNotKept() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        SourceStore.Version src = built(store);
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        CompileJobService jobs = new CompileJobService(null, store, null, stopped, 1);
+
+        assertThrows(RejectedExecutionException.class, () -> jobs.submit(src, dir.resolve("a")));
+        // With one retained job, a kept orphan would make this fail on the job limit instead.
+        RejectedExecutionException again = assertThrows(RejectedExecutionException.class,
+                () -> jobs.submit(src, dir.resolve("a")));
+        assertNotEquals("Too many pending jobs", again.getMessage());
+    }
+
+    private static SourceStore.Version built(SourceStore store) throws Exception {
+        String name = store.create("a.c").fileName();
+        SourceStore.Version src = store.save(name, "int main(){return 0;}", null).version();
+        store.built(name, src.hash());
+        return src;
+    }
+}
@@ -0,0 +1,33 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DetachedRunsTests {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    void earlierDetachDoesNotCutShortTheNextGracePeriod() throws Exception {
+        DetachedRuns<String> runs = new DetachedRuns<>(1, DIRECT);
+        List<String> expired = new CopyOnWriteArrayList<>();
+
+        runs.detach("tok", "run", expired::add);
+        Thread.sleep(600);
+        assertEquals("run", runs.attach("tok"));
+        runs.detach("tok", "run", expired::add);
+
+        Thread.sleep(700); // the first detach's timer has fired by now
+        assertEquals(List.of(), expired);
+        assertEquals(1, runs.size());
+
+        Thread.sleep(800);
+        assertEquals(List.of("run"), expired);
+        assertNull(runs.attach("tok"));
+    }
+}
@@ -0,0 +1,97 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobSchedulerTests {
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        JobScheduler scheduler = new JobScheduler(1, 1, 1, new PipelineMetrics(new SimpleMeterRegistry()));
+        JobScheduler.Permit running = scheduler.acquire(JobScheduler.Lane.COMPILE, "a", null);
+
+        ExecutorService pool = Executors.newCachedThreadPool();
+        CountDownLatch queued = new CountDownLatch(1);
+        Future<?> waiter = pool.submit(() -> {
+            scheduler.acquire(JobScheduler.Lane.COMPILE, "b", p -> queued.countDown()).close();
+            return null;
+        });
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+        assertThrows(RejectedExecutionException.class,
+                () -> scheduler.acquire(JobScheduler.Lane.COMPILE, "c", null));
+
+        running.close();
+        waiter.get(5, TimeUnit.SECONDS);
+        assertEquals(0, scheduler.running(JobScheduler.Lane.COMPILE));
+        pool.shutdownNow();
+    }
+
+    @Test
+    void servesOwnersRoundRobin() throws Exception {
+        JobScheduler scheduler = new JobScheduler(1, 1, 16, new PipelineMetrics(new SimpleMeterRegistry()));
+        JobScheduler.Permit running = scheduler.acquire(JobScheduler.Lane.EXECUTE, "x", null);
+
+        ExecutorService pool = Executors.newCachedThreadPool();
+        List<String> order = new CopyOnWriteArrayList<>();
+        // "a" queues three jobs before "b" queues one; "b" must not wait behind all of them.
+        for (String owner : List.of("a", "a", "a", "b")) {
+            CountDownLatch queued = new CountDownLatch(1);
+            pool.submit(() -> {
+                JobScheduler.Permit permit = scheduler.acquire(JobScheduler.Lane.EXECUTE, owner, p -> queued.countDown());
+                order.add(owner);
+                permit.close();
+                return null;
+            });
+            assertTrue(queued.await(5, TimeUnit.SECONDS));
+        }
+
+        running.close();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b", "a", "a"), order);
+    }
+
+    @Test
+    void stalledQueueCallbackDoesNotHoldUpTheLane() throws Exception {
+        JobScheduler scheduler = new JobScheduler(1, 1, 16, new PipelineMetrics(new SimpleMeterRegistry()));
+        JobScheduler.Permit running = scheduler.acquire(JobScheduler.Lane.COMPILE, "x", null);
+
+        ExecutorService pool = Executors.newCachedThreadPool();
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch unstall = new CountDownLatch(1);
+        Future<?> slow = pool.submit(() -> {
+            scheduler.acquire(JobScheduler.Lane.COMPILE, "slow", p -> {
+                stalled.countDown();
+                try {
+                    unstall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }).close();
+            return null;
+        });
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        // Queuing, releasing and granting all go on while "slow" sits in its callback.
+        CountDownLatch queued = new CountDownLatch(1);
+        Future<?> other = pool.submit(() -> {
+            scheduler.acquire(JobScheduler.Lane.COMPILE, "other", p -> queued.countDown()).close();
+            return null;
+        });
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        running.close();
+        assertEquals(2, scheduler.queued(JobScheduler.Lane.COMPILE) + scheduler.running(JobScheduler.Lane.COMPILE));
+
+        unstall.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        other.get(5, TimeUnit.SECONDS);
+        assertEquals(0, scheduler.running(JobScheduler.Lane.COMPILE));
+        pool.shutdownNow();
+    }
+}
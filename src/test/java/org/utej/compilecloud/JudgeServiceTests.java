@@ -0,0 +1,122 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class JudgeServiceTests {
+
+    // Doubles its input; 3 spins forever, 4 fails, a negative number sleeps 300 ms first.
+    private static final String DOUBLER = """
+            #include <stdio.h>
+            #include <unistd.h>
+            int main(void) {
+                int n;
+                if (scanf("%d", &n) != 1) return 2;
+                if (n == 3) for (;;) { }
+                if (n == 4) { fprintf(stderr, "bad input\\n"); return 1; }
+                if (n < 0) { usleep(300000); n = -n; }
+                printf("%d\\n", n * 2);
+                return 0;
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void exactComparisonIsByteForByte() {
+        assertTrue(JudgeService.matches(JudgeService.Compare.EXACT, "1 2\n3\n", "1 2\n3\n"));
+        assertFalse(JudgeService.matches(JudgeService.Compare.EXACT, "1 2\n3", "1 2\n3\n"));
+        assertFalse(JudgeService.matches(JudgeService.Compare.EXACT, "1  2\n3\n", "1 2\n3\n"));
+    }
+
+    @Test
+    void whitespaceComparisonIgnoresSpacingAndLineBreaks() {
+        assertTrue(JudgeService.matches(JudgeService.Compare.WHITESPACE, "  1 2\r\n3  \n\n", "1 2\n3"));
+        assertTrue(JudgeService.matches(JudgeService.Compare.WHITESPACE, "\n", ""));
+        assertFalse(JudgeService.matches(JudgeService.Compare.WHITESPACE, "1 23", "1 2 3"));
+        assertFalse(JudgeService.matches(JudgeService.Compare.WHITESPACE, "", "0"));
+    }
+
+    @Test
+    void compilesOnceAndJudgesEachCase() throws Exception {
+        JudgeService judge = judge(2);
+        AtomicInteger compiles = new AtomicInteger();
+        List<JudgeService.TestCase> cases = List.of(
+                new JudgeService.TestCase("ok", "1\n", "2\n"),
+                new JudgeService.TestCase("wrong", "2\n", "5\n"),
+                new JudgeService.TestCase("spin", "3\n", "6\n"),
+                new JudgeService.TestCase("crash", "4\n", "8\n"));
+
+        Map<String, Object> summary = judge.judge(DOUBLER, cases, JudgeService.Compare.WHITESPACE, 500, false,
+                new JudgeService.Listener() {
+                    @Override
+                    public void compiled(CompileService.Result result) {
+                        compiles.incrementAndGet();
+                    }
+                });
+
+        assertEquals("ok", summary.get("status"), String.valueOf(summary.get("output")));
+        assertEquals(1, compiles.get());
+        assertEquals(1, summary.get("passed"));
+        List<?> rows = (List<?>) summary.get("cases");
+        assertEquals(List.of("ACCEPTED", "WRONG_ANSWER", "TIME_LIMIT", "RUNTIME_ERROR"),
+                rows.stream().map(r -> ((Map<?, ?>) r).get("verdict")).toList());
+        assertEquals("exceeded 500 ms", ((Map<?, ?>) rows.get(2)).get("detail"));
+        assertTrue(((Map<?, ?>) rows.get(3)).get("detail").toString().contains("bad input"));
+    }
+
+    @Test
+    void runsAtMostParallelismCasesAtOnce() throws Exception {
+        JudgeService judge = judge(2);
+        List<JudgeService.TestCase> cases = List.of(
+                new JudgeService.TestCase(null, "-1", "2"),
+                new JudgeService.TestCase(null, "-2", "4"),
+                new JudgeService.TestCase(null, "-3", "6"),
+                new JudgeService.TestCase(null, "-5", "10"));
+
+        Map<String, Object> summary = judge.judge(DOUBLER, cases, JudgeService.Compare.WHITESPACE, 5000, false,
+                new JudgeService.Listener() { });
+
+        assertEquals(4, summary.get("passed"));
+        // Four 300 ms cases two at a time take at least two rounds.
+        assertTrue((Long) summary.get("runMillis") >= 600, "ran " + summary.get("runMillis") + " ms");
+    }
+
+    private JudgeService judge(int parallelism) throws Exception {
+        assumeTrue(System.getProperty("os.name").toLowerCase().contains("linux"));
+        assumeTrue(new ProcessBuilder("gcc", "--version").start().waitFor() == 0);
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        WorkspaceManager workspaces = new WorkspaceManager("disk", dir.resolve("ws").toString(), 600, 3600);
+        JobScheduler scheduler = new JobScheduler(2, 4, 64, metrics);
+        CompileService compiler = new CompileService(
+                new CompileCache(dir.resolve("cache").toString(), 1 << 26), workspaces,
+                new PchManager(false, dir.resolve("pch").toString(), "stdio.h", executor),
+                scheduler, metrics, executor, false, "gcc -O0", "gcc -O0");
+        ResourceLimits limits = new ResourceLimits(new MockEnvironment(), true, "");
+        LauncherPool launchers = new LauncherPool(limits, metrics, false, 0, 0, 10_000, 300);
+        ResultCache results = new ResultCache(metrics, false, 1 << 20, "", 0);
+        return new JudgeService(compiler, workspaces, scheduler, limits, launchers, results, metrics, executor,
+                "default", parallelism, 200, 1 << 20);
+    }
+}
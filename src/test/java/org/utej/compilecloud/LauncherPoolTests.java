@@ -0,0 +1,91 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class LauncherPoolTests {
+
+    @TempDir
+    Path dir;
+
+    ResourceLimits limits;
+    LauncherPool pool;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(System.getProperty("os.name").toLowerCase().contains("linux"));
+        limits = new ResourceLimits(new MockEnvironment(), true, "");
+        pool = new LauncherPool(limits, new PipelineMetrics(new SimpleMeterRegistry()), true, 0, 0, 10_000, 300);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Test
+    void warmLauncherExecsInDirectoryAndLeavesStdinToProgram() throws Exception {
+        ResourceLimits.Profile profile = limits.profile("default");
+        pool.prewarm(LauncherPool.Kind.PIPE, profile, 2);
+
+        try (LauncherPool.Launch pwd = pool.start(LauncherPool.Kind.PIPE, profile, dir, "/bin/pwd")) {
+            assertTrue(pwd.warm());
+            assertEquals(dir.toRealPath().toString(), new String(pwd.process().getInputStream().readAllBytes()).strip());
+            assertEquals(0, pwd.process().waitFor());
+        }
+        try (LauncherPool.Launch cat = pool.start(LauncherPool.Kind.PIPE, profile, dir, "/bin/cat")) {
+            assertTrue(cat.warm());
+            try (OutputStream in = cat.process().getOutputStream()) {
+                in.write("line one\nline two\n".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals("line one\nline two\n", new String(cat.process().getInputStream().readAllBytes()));
+            assertEquals(0, cat.process().waitFor());
+        }
+    }
+
+    @Test
+    void emptyPoolFallsBackToColdLaunch() throws Exception {
+        ResourceLimits.Profile profile = limits.profile("default");
+        try (LauncherPool.Launch launch = pool.start(LauncherPool.Kind.PIPE, profile, dir, "/bin/pwd")) {
+            assertFalse(launch.warm());
+            assertEquals(dir.toRealPath().toString(), new String(launch.process().getInputStream().readAllBytes()).strip());
+            assertEquals(0, launch.process().waitFor());
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> stats = (Map<String, Object>) ((Map<String, Object>) pool.stats().get("pools")).get("pipe/default");
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(0L, stats.get("hits"));
+    }
+
+    @Test
+    void closingLaunchKillsChildrenTheProgramLeftBehind() throws Exception {
+        ResourceLimits.Profile profile = limits.profile("default");
+        // Double-forks a sleeper, so it is re-parented and no longer a descendant, then exits.
+        Path program = Files.writeString(dir.resolve("orphan.sh"), "#!/bin/sh\n(sleep 60 & echo $! > child.pid)\n");
+        assertTrue(program.toFile().setExecutable(true));
+
+        ProcessHandle child;
+        try (LauncherPool.Launch launch = pool.start(LauncherPool.Kind.PIPE, profile, dir, program.toString())) {
+            assertEquals(0, launch.process().waitFor());
+            long pid = Long.parseLong(Files.readString(dir.resolve("child.pid")).strip());
+            child = ProcessHandle.of(pid).orElseThrow();
+            assertTrue(child.isAlive());
+        }
+        child.onExit().get(5, TimeUnit.SECONDS);
+        assertFalse(child.isAlive());
+    }
+}
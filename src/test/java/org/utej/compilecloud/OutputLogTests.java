@@ -0,0 +1,93 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputLogTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysFromTheRequestedRecord() throws IOException {
+        try (OutputLog log = new OutputLog(1024, 0, dir)) {
+            for (int i = 0; i < 5; i++) log.append(WireProtocol.OUTPUT, bytes("line " + i));
+            List<String> seen = new ArrayList<>();
+            assertEquals(3, log.replay(3, (type, payload) -> seen.add(new String(payload, StandardCharsets.UTF_8))));
+            assertEquals(List.of("line 3", "line 4"), seen);
+            assertEquals(5, log.nextSeq());
+        }
+    }
+
+    @Test
+    void wrapsAndDropsTheOldestRecords() throws IOException {
+        try (OutputLog log = new OutputLog(64, 0, dir)) {
+            for (int i = 0; i < 20; i++) log.append(WireProtocol.OUTPUT, bytes("record-" + (char) ('a' + i)));
+            assertTrue(log.firstSeq() > 0);
+            List<String> seen = new ArrayList<>();
+            long first = log.replay(0, (type, payload) -> seen.add(new String(payload, StandardCharsets.UTF_8)));
+            assertEquals(log.firstSeq(), first);
+            assertEquals(20 - first, seen.size());
+            assertEquals("record-t", seen.get(seen.size() - 1));
+        }
+    }
+
+    @Test
+    void manyTinyRecordsAreIndexedByTheRingAlone() throws IOException {
+        try (OutputLog log = new OutputLog(1024, 0, dir)) {
+            for (int i = 0; i < 1_000_000; i++) log.append(WireProtocol.OUTPUT, new byte[] { (byte) ('0' + i % 10) });
+            assertEquals(1_000_000, log.nextSeq());
+            // Six bytes per record, header included.
+            assertEquals(1_000_000 - 1024 / 6, log.firstSeq());
+            StringBuilder seen = new StringBuilder();
+            assertEquals(999_998, log.replay(999_998, (type, payload) -> seen.append((char) payload[0])));
+            assertEquals("89", seen.toString());
+        }
+    }
+
+    @Test
+    void oversizedRecordKeepsItsTail() throws IOException {
+        try (OutputLog log = new OutputLog(16, 0, dir)) {
+            log.append(WireProtocol.STDERR, bytes("0123456789abcdefghij"));
+            List<String> seen = new ArrayList<>();
+            log.replay(0, (type, payload) -> {
+                assertEquals(WireProtocol.STDERR, type);
+                seen.add(new String(payload, StandardCharsets.UTF_8));
+            });
+            assertEquals(List.of("9abcdefghij"), seen);
+        }
+    }
+
+    @Test
+    void spillsToAMappedFileAndDeletesIt() throws IOException {
+        OutputLog log = new OutputLog(64, 4096, dir);
+        for (int i = 0; i < 100; i++) log.append(WireProtocol.OUTPUT, bytes("line " + i));
+        assertEquals(1, count(dir));
+        assertEquals(0, log.firstSeq());
+        List<String> seen = new ArrayList<>();
+        log.replay(98, (type, payload) -> seen.add(new String(payload, StandardCharsets.UTF_8)));
+        assertEquals(List.of("line 98", "line 99"), seen);
+        log.close();
+        assertEquals(0, count(dir));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PchManagerTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void collectsLeadingSystemIncludes() {
+        String src = """
+                // hello
+                /* multi
+                   line */
+                #include <stdio.h>
+                #include<stdlib.h>   // for malloc
+                #include "local.h"
+                #include <string.h>
+                int main(void) { return 0; }
+                """;
+        assertEquals(Set.of("stdio.h", "stdlib.h"), PchManager.leadingSystemIncludes(src));
+    }
+
+    @Test
+    void stopsAtFirstDirectiveThatIsNotAnInclude() {
+        String src = """
+                #define _GNU_SOURCE
+                #include <stdio.h>
+                """;
+        assertEquals(Set.of(), PchManager.leadingSystemIncludes(src));
+        assertEquals(Set.of(), PchManager.leadingSystemIncludes("/* x */ int y;\n#include <stdio.h>\n"));
+    }
+
+    @Test
+    void warmKeepsStagingDirectoriesOfBuildsInProgress() throws Exception {
+        PchManager pch = new PchManager(true, dir.toString(), "stdio.h", Executors.newSingleThreadExecutor());
+        Path stale = Files.createDirectory(dir.resolve("0123abcd"));
+        Path building = Files.createDirectory(dir.resolve("staging-1"));
+        Path abandoned = Files.createDirectory(dir.resolve("staging-2"));
+        Files.setLastModifiedTime(abandoned, FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS)));
+
+        pch.warm(Map.of());
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(building));
+        assertFalse(Files.exists(abandoned));
+    }
+}
@@ -0,0 +1,59 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ResourceLimitsTests {
+
+    @Test
+    void profilesFallBackToDefaultThenBuiltIns() {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("compilecloud.limits.profiles.default.cpu-seconds", "3")
+                .withProperty("compilecloud.limits.profiles.interactive.wall-seconds", "600");
+        ResourceLimits limits = new ResourceLimits(env, true, "");
+
+        ResourceLimits.Profile interactive = limits.profile("interactive");
+        assertEquals(3, interactive.cpuSeconds());
+        assertEquals(600, interactive.wallSeconds());
+        assertEquals(512L << 20, interactive.addressSpaceBytes());
+        assertEquals(10, limits.profile("default").wallSeconds());
+    }
+
+    @Test
+    void cpuLimitKillsSpinningProgram() throws Exception {
+        assumeTrue(System.getProperty("os.name").toLowerCase().contains("linux"));
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("compilecloud.limits.profiles.default.cpu-seconds", "1");
+        ResourceLimits limits = new ResourceLimits(env, true, "");
+
+        try (ResourceLimits.Sandbox sandbox = limits.sandbox(limits.profile("default"),
+                List.of("/bin/sh", "-c", "while :; do :; done"))) {
+            Process p = new ProcessBuilder(sandbox.command()).start();
+            assertTrue(Processes.awaitExit(p, 10, TimeUnit.SECONDS), "spinner outlived its CPU limit");
+            ResourceLimits.Violation violation = sandbox.killedBy(p.exitValue());
+            assertNotNull(violation);
+            assertEquals("cpu", violation.kind());
+        }
+    }
+
+    @Test
+    void segfaultWithoutMemoryEvidenceIsAnOrdinaryCrash() throws Exception {
+        assumeTrue(System.getProperty("os.name").toLowerCase().contains("linux"));
+        ResourceLimits limits = new ResourceLimits(new MockEnvironment(), true, "");
+
+        try (ResourceLimits.Sandbox sandbox = limits.sandbox(limits.profile("default"),
+                List.of("/bin/sh", "-c", "kill -SEGV $$"))) {
+            Process p = new ProcessBuilder(sandbox.command()).start();
+            assertTrue(Processes.awaitExit(p, 10, TimeUnit.SECONDS));
+            assertEquals(139, p.exitValue());
+            assertNull(sandbox.killedBy(p.exitValue()));
+            assertEquals("cpu", sandbox.killedBy(128 + 24).kind());
+        }
+    }
+}
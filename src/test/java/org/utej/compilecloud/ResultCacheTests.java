@@ -0,0 +1,56 @@
+package org.utej.compilecloud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTests {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void keyDependsOnBinaryInputAndLimits() {
+        ResourceLimits.Profile p = new ResourceLimits.Profile("default", 5, 1 << 20, 64, 1 << 20, 10);
+        ResourceLimits.Profile tighter = new ResourceLimits.Profile("default", 1, 1 << 20, 64, 1 << 20, 10);
+        String base = ResultCache.key("abc", "1 2\n", p);
+        assertEquals(base, ResultCache.key("abc", "1 2\n", p));
+        assertNotEquals(base, ResultCache.key("abd", "1 2\n", p));
+        assertNotEquals(base, ResultCache.key("abc", "1 3\n", p));
+        assertNotEquals(base, ResultCache.key("abc", "1 2\n", tighter));
+    }
+
+    @Test
+    void spillsEvictedEntriesAndPromotesThemOnHit() throws Exception {
+        ResultCache cache = new ResultCache(new PipelineMetrics(new SimpleMeterRegistry()), true, 200,
+                tmp.resolve("spill").toString(), 1 << 20);
+        cache.put("a", new ResultCache.Entry("x".repeat(40), "", 0, 3));
+        cache.put("b", new ResultCache.Entry("y".repeat(40), "warn", 1, 4)); // pushes a out of memory
+
+        assertEquals(1, cache.stats().get("spilledEntries"));
+        ResultCache.Entry a = cache.get("a");
+        assertEquals("x".repeat(40), a.stdout());
+        assertEquals(3, a.millis());
+        assertEquals(1L, cache.stats().get("spillHits"));
+        assertNull(cache.get("c"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void disabledCacheStoresNothing() throws Exception {
+        ResultCache cache = new ResultCache(new PipelineMetrics(new SimpleMeterRegistry()), false, 1 << 20, "", 0);
+        cache.put("a", new ResultCache.Entry("out", "", 0, 1));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void flagsSourcesThatReadTimeOrRandomness() {
+        assertTrue(ResultCache.looksNondeterministic("int main(){ srand(time(NULL)); }"));
+        assertTrue(ResultCache.looksNondeterministic("fopen(\"/dev/urandom\", \"r\")"));
+        assertFalse(ResultCache.looksNondeterministic("int runtime(int x); int main(){ return runtime(1); }"));
+    }
+}
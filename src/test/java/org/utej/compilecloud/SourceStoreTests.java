@@ -0,0 +1,95 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void identicalSaveLeavesTheFileAlone() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        String name = store.create("a.c").fileName();
+
+        SourceStore.Saved first = store.save(name, "int main(){}", null);
+        assertEquals(SourceStore.Outcome.SAVED, first.outcome());
+        assertEquals(2, first.version().version());
+        assertEquals(SourceStore.sha256("int main(){}"), first.version().hash());
+
+        FileTime old = FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS));
+        Files.setLastModifiedTime(store.path(name), old);
+        SourceStore.Saved again = store.save(name, "int main(){}", 2L);
+        assertEquals(SourceStore.Outcome.UNCHANGED, again.outcome());
+        assertEquals(2, again.version().version());
+        assertEquals(old, Files.getLastModifiedTime(store.path(name)));
+    }
+
+    @Test
+    void patchesApplyToTheirBaseVersion() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        String name = store.create("b.c").fileName();
+        store.save(name, "int main() { return 0; }", null);
+
+        List<SourceStore.Edit> edits = List.of(new SourceStore.Edit(20, 21, "42"), new SourceStore.Edit(0, 3, "long"));
+        String expected = "long main() { return 42; }";
+        SourceStore.Saved patched = store.patch(name, 2, edits, SourceStore.sha256(expected));
+        assertEquals(SourceStore.Outcome.SAVED, patched.outcome());
+        assertEquals(expected, Files.readString(store.path(name)));
+
+        SourceStore.Saved stale = store.patch(name, 2, edits, null);
+        assertEquals(SourceStore.Outcome.CONFLICT, stale.outcome());
+        assertEquals(3, stale.version().version());
+
+        SourceStore.Saved drifted = store.patch(name, 3, List.of(new SourceStore.Edit(0, 0, "//\n")), "0000");
+        assertEquals(SourceStore.Outcome.CONFLICT, drifted.outcome());
+        assertEquals(expected, Files.readString(store.path(name)));
+
+        SourceStore.Saved outside = store.patch(name, 3, List.of(new SourceStore.Edit(5, 500, "")), null);
+        assertEquals(SourceStore.Outcome.INVALID, outside.outcome());
+    }
+
+    @Test
+    void knowsWhichSourceTheArtifactWasBuiltFrom() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        String name = store.create("c.c").fileName();
+        SourceStore.Version v2 = store.save(name, "int main(){}", null).version();
+        Path exe = Files.write(dir.resolve("c"), new byte[1]);
+
+        assertFalse(store.isBuilt(v2, exe));
+        store.built(name, v2.hash());
+        assertTrue(store.isBuilt(v2, exe));
+        assertFalse(store.isBuilt(store.save(name, "int main(){return 1;}", null).version(), exe));
+    }
+
+    @Test
+    void contentIsReadBackFromDisk() throws Exception {
+        SourceStore store = new SourceStore(dir.toString());
+        String name = store.create("d.c").fileName();
+        store.save(name, "int main(){}", null);
+
+        Files.writeString(store.path(name), "int main(){return 2;}");
+        SourceStore.Version outside = store.current(name);
+        assertEquals(3, outside.version());
+        assertEquals("int main(){return 2;}", outside.content());
+        assertEquals(SourceStore.sha256("int main(){return 2;}"), outside.hash());
+
+        assertEquals(SourceStore.Outcome.CONFLICT,
+                store.patch(name, 2, List.of(new SourceStore.Edit(0, 3, "long")), null).outcome());
+        SourceStore.Saved patched = store.patch(name, 3, List.of(new SourceStore.Edit(18, 19, "3")), null);
+        assertEquals(SourceStore.Outcome.SAVED, patched.outcome());
+        assertEquals("int main(){return 3;}", Files.readString(store.path(name)));
+        assertEquals("int main(){return 3;}", store.current(name).content());
+        assertEquals(4, store.current(name).version());
+    }
+}
@@ -0,0 +1,62 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StdinPipeTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void staysOpenAcrossLinesAndClosesOnEof() throws Exception {
+        RecordingStream stdin = new RecordingStream();
+        StdinPipe pipe = new StdinPipe(stdin, 1024);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(pipe);
+
+        assertTrue(pipe.write(bytes("3\n")));
+        assertTrue(pipe.write(bytes("1 2 3\n")));
+        Path file = Files.writeString(dir.resolve("rest.txt"), "4 5 6\n".repeat(1000));
+        assertTrue(pipe.transfer(file));
+        assertTrue(pipe.write(bytes("done\n")));
+        pipe.eof();
+        assertFalse(pipe.write(bytes("late\n")));
+
+        writer.get(10, TimeUnit.SECONDS);
+        assertTrue(stdin.closed);
+        assertEquals("3\n1 2 3\n" + "4 5 6\n".repeat(1000) + "done\n", stdin.toString(StandardCharsets.UTF_8));
+        assertEquals(stdin.size(), pipe.bytesWritten());
+    }
+
+    @Test
+    void refusesInputPastThePendingLimit() {
+        StdinPipe pipe = new StdinPipe(new RecordingStream(), 8);
+        assertTrue(pipe.write(bytes("12345")));
+        assertFalse(pipe.write(bytes("67890")));
+        assertTrue(pipe.isOpen());
+        pipe.close();
+        assertFalse(pipe.isOpen());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordingStream extends ByteArrayOutputStream {
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
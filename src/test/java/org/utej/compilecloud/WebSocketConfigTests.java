@@ -0,0 +1,81 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Raw handshakes, so the response headers are exactly what the container sent.
+class WebSocketConfigTests {
+
+    @Nested
+    @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+            properties = "compilecloud.ws.permessage-deflate=true")
+    class DeflateOn {
+
+        @LocalServerPort
+        int port;
+
+        @Test
+        void acceptsPermessageDeflate() throws Exception {
+            List<String> headers = handshake(port);
+            assertTrue(headers.getFirst().startsWith("HTTP/1.1 101"), headers.getFirst());
+            assertTrue(extensions(headers).contains("permessage-deflate"), headers.toString());
+        }
+    }
+
+    @Nested
+    @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+            properties = "compilecloud.ws.permessage-deflate=false")
+    class DeflateOff {
+
+        @LocalServerPort
+        int port;
+
+        @Test
+        void neverAcceptsPermessageDeflate() throws Exception {
+            List<String> headers = handshake(port);
+            assertTrue(headers.getFirst().startsWith("HTTP/1.1 101"), headers.getFirst());
+            assertEquals("", extensions(headers), headers.toString());
+        }
+    }
+
+    private static List<String> handshake(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /terminal HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1:" + port + "\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n"
+                    + "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            List<String> headers = new ArrayList<>();
+            for (String line; (line = in.readLine()) != null && !line.isEmpty(); ) headers.add(line);
+            return headers;
+        }
+    }
+
+    private static String extensions(List<String> headers) {
+        StringBuilder found = new StringBuilder();
+        for (String h : headers) {
+            if (h.regionMatches(true, 0, "Sec-WebSocket-Extensions:", 0, 25)) found.append(h.substring(25).trim());
+        }
+        return found.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireProtocolTests {
+
+    @Test
+    void textMessagesBecomeTypedRecords() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WireProtocol.putMessage(out, "BUILD_LOG: Compiling...\n");
+        WireProtocol.putMessage(out, "END:SUCCESS");
+        WireProtocol.putMessage(out, "[started] main\n");
+
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        assertRecord(buf, WireProtocol.BUILD_LOG, " Compiling...\n");
+        assertRecord(buf, WireProtocol.EXIT, "SUCCESS");
+        assertRecord(buf, WireProtocol.STATUS, "[started] main\n");
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    void outputPrefixesMapToStreams() {
+        assertEquals(WireProtocol.OUTPUT, WireProtocol.typeOfPrefix("OUTPUT:"));
+        assertEquals(WireProtocol.STDERR, WireProtocol.typeOfPrefix(WireProtocol.STDERR_PREFIX));
+    }
+
+    @Test
+    void textFallbackIsUnchanged() {
+        assertEquals(new TextMessage("QUEUED:3"), WireProtocol.message(false, "QUEUED:3"));
+        BinaryMessage binary = (BinaryMessage) WireProtocol.message(true, "QUEUED:3");
+        assertRecord(binary.getPayload(), WireProtocol.QUEUED, "3");
+    }
+
+    @Test
+    void recordsConvertBackToTextMessages() {
+        for (String message : new String[] { "BUILD_LOG: Compiling...\n", "END:LIMIT", "OUTPUT:hi", "[started] main\n" }) {
+            byte type = WireProtocol.typeOfMessage(message);
+            assertEquals(message, WireProtocol.toText(type, WireProtocol.payloadOfMessage(message, type)));
+        }
+        assertEquals(WireProtocol.STDERR_PREFIX + "oops",
+                WireProtocol.toText(WireProtocol.STDERR, "oops".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertRecord(ByteBuffer buf, byte type, String payload) {
+        assertEquals(type, buf.get());
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        assertEquals(payload, new String(bytes, StandardCharsets.UTF_8));
+    }
+}
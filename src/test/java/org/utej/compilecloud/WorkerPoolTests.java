@@ -0,0 +1,206 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkerPoolTests {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void remoteRunStreamsInputAndOutputInOrder() throws Exception {
+        WorkspaceManager workspaces = new WorkspaceManager("disk", dir.resolve("ws").toString(), 600, 3600);
+        WorkerServer server = new WorkerServer(new EchoWorker("echo", 4), workspaces, executor, 0, "127.0.0.1");
+        int port = server.listen(0);
+        try {
+            RemoteWorker remote = new RemoteWorker("127.0.0.1:" + port, executor, 2000);
+            assertFalse(remote.healthy());
+            assertTrue(remote.check());
+            assertEquals(4, remote.slots());
+
+            RecordingSink sink = new RecordingSink();
+            Worker.Run run = remote.start("tok", "int main(){}", sink);
+            run.input("hi\n".getBytes(StandardCharsets.UTF_8));
+            Path file = Files.writeString(dir.resolve("in.txt"), "1 2 3\n".repeat(10_000));
+            run.inputFile(file);
+            run.eof();
+            run.done().get(10, TimeUnit.SECONDS);
+
+            assertEquals(List.of(
+                    "BUILD_LOG: tok int main(){}",
+                    "OUTPUT:hi\n",
+                    WireProtocol.STDERR_PREFIX + "1 2 3\n".repeat(10_000),
+                    "END:SUCCESS"), sink.messages);
+            assertTrue(remote.healthy());
+            assertEquals(0, remote.active());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void lostConnectionIsReportedAndMarksWorkerUnhealthy() throws Exception {
+        try (ServerSocket dying = new ServerSocket(0)) {
+            executor.submit(() -> {
+                try (Socket socket = dying.accept()) {
+                    WorkerProtocol.read(new DataInputStream(socket.getInputStream()));
+                }
+                return null;
+            });
+            RemoteWorker remote = new RemoteWorker("127.0.0.1:" + dying.getLocalPort(), executor, 2000);
+            RecordingSink sink = new RecordingSink();
+            remote.start("tok", "int main(){}", sink).done().get(10, TimeUnit.SECONDS);
+
+            assertTrue(sink.messages.getLast().startsWith("ERROR: Lost the connection"));
+            assertFalse(remote.healthy());
+        }
+    }
+
+    @Test
+    void picksLeastLoadedHealthyWorkerAndFallsBack() throws Exception {
+        EchoWorker embedded = new EchoWorker("embedded", 2);
+        EchoWorker idle = new EchoWorker("idle", 4);
+        EchoWorker down = new EchoWorker("down", 4);
+        embedded.active = 1;
+        idle.active = 1;
+        down.healthy = false;
+        WorkerPool pool = new WorkerPool(List.of(embedded, idle, down), executor);
+
+        assertEquals(List.of(idle, embedded), pool.candidates());
+
+        idle.active = 2;
+        assertEquals(List.of(embedded, idle), pool.candidates()); // tie keeps list order
+
+        embedded.unreachable = true;
+        RecordingSink sink = new RecordingSink();
+        pool.start("tok", "src", sink);
+        assertEquals(List.of("BUILD_LOG: tok src"), sink.messages);
+        assertEquals(3, idle.active);
+
+        idle.unreachable = true;
+        assertThrows(IOException.class, () -> pool.start("tok", "src", sink));
+    }
+
+    /** Sends BUILD_LOG on start, echoes lines to stdout and files to stderr, and ends at EOF. */
+    private static final class EchoWorker implements Worker {
+        final String id;
+        final int slots;
+        volatile int active;
+        volatile boolean healthy = true;
+        volatile boolean unreachable;
+
+        EchoWorker(String id, int slots) {
+            this.id = id;
+            this.slots = slots;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public int active() {
+            return active;
+        }
+
+        @Override
+        public int slots() {
+            return slots;
+        }
+
+        @Override
+        public boolean healthy() {
+            return healthy;
+        }
+
+        @Override
+        public Run start(String owner, String source, Sink sink) throws IOException {
+            if (unreachable) throw new IOException(id + " is unreachable");
+            active++;
+            sink.send("BUILD_LOG: " + owner + " " + source);
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            return new Run() {
+                @Override
+                public void input(byte[] data) {
+                    output("OUTPUT:", new String(data, StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public void inputFile(Path file) {
+                    try {
+                        output(WireProtocol.STDERR_PREFIX, Files.readString(file));
+                    } catch (IOException e) {
+                        sink.send("ERROR: " + e.getMessage());
+                    }
+                }
+
+                @Override
+                public void eof() {
+                    sink.send("END:SUCCESS");
+                    finish();
+                }
+
+                @Override
+                public void cancel() {
+                    finish();
+                }
+
+                @Override
+                public CompletableFuture<Void> done() {
+                    return done;
+                }
+
+                private void output(String prefix, String text) {
+                    try {
+                        sink.output(prefix, text);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                private void finish() {
+                    if (done.complete(null)) active--;
+                }
+            };
+        }
+    }
+
+    private static final class RecordingSink implements Worker.Sink {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public boolean output(String prefix, CharSequence text) {
+            messages.add(prefix + text);
+            return true;
+        }
+
+        @Override
+        public void send(String message) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.utej.compilecloud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class WorkspaceManagerTests {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void closeDeletesWorkspaceAndCountsBytes() throws Exception {
+        WorkspaceManager workspaces = new WorkspaceManager("disk", root.toString(), 600, 3600);
+        Path dir;
+        try (WorkspaceManager.Workspace ws = workspaces.open("session/1")) {
+            dir = ws.dir();
+            Path file = Files.write(ws.resolve("main.out"), new byte[123]);
+            ws.recordWrite(file);
+            assertEquals(123, ws.bytesWritten());
+        }
+        assertFalse(Files.exists(dir));
+        assertEquals(123L, workspaces.stats().get("bytesWritten"));
+        assertEquals(0, workspaces.stats().get("active"));
+    }
+
+    @Test
+    void artifactInUseIsNotReaped() throws Exception {
+        WorkspaceManager workspaces = new WorkspaceManager("disk", root.toString(), 60, 60);
+        FileTime old = FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS));
+        Path used = Files.write(workspaces.artifact("used"), new byte[1]);
+        Path idle = Files.write(workspaces.artifact("idle"), new byte[1]);
+        Files.setLastModifiedTime(used, old);
+        Files.setLastModifiedTime(idle, old);
+
+        assertEquals(used, workspaces.artifact("used"));
+        workspaces.reap();
+        assertTrue(Files.exists(used));
+        assertFalse(Files.exists(idle));
+    }
+
+    @Test
+    void reaperRemovesOnlyStaleOrphans() throws Exception {
+        WorkspaceManager workspaces = new WorkspaceManager("disk", root.toString(), 60, 60);
+        FileTime old = FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS));
+
+        Path orphan = Files.createDirectory(root.resolve("jobs").resolve("crashed-1234"));
+        Files.setLastModifiedTime(orphan, old);
+        Path staleArtifact = Files.write(workspaces.artifact("old"), new byte[1]);
+        Files.setLastModifiedTime(staleArtifact, old);
+        Path freshArtifact = Files.write(workspaces.artifact("new"), new byte[1]);
+
+        try (WorkspaceManager.Workspace busy = workspaces.open("busy")) {
+            Files.setLastModifiedTime(busy.dir(), old);
+            workspaces.reap();
+            assertTrue(Files.exists(busy.dir()));
+        }
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(staleArtifact));
+        assertTrue(Files.exists(freshArtifact));
+    }
+
+    @Test
+    void execProbeRejectsUnusableRoots() throws Exception {
+        assumeTrue(System.getProperty("os.name").toLowerCase().contains("linux"));
+        assertTrue(WorkspaceManager.allowsExec(root.resolve("ok")));
+        Path file = Files.createFile(root.resolve("not-a-dir"));
+        assertFalse(WorkspaceManager.allowsExec(file.resolve("ws")));
+        try (var left = Files.list(root.resolve("ok"))) {
+            assertEquals(0, left.count());
+        }
+    }
+}